@@ -31,4 +31,6 @@ public interface EventMaker {
     void delete(Event event);
 
     Event getById(int id);
+
+    Event saveEvent(Queue queue, Event event, long timestamp, String comment, String[] tagNames);
 }
@@ -34,6 +34,10 @@ public interface Queue {
 
     Event[] getEvents(EventOrder.Order order);
 
+    Event[] getEvents(EventOrder.Order order, Event after, int limit);
+
+    Event[] getEvents(EventOrder.Order order, long afterTimestamp, int afterId, int limit);
+
     int getEventCount();
 
     void addEvent(Event event);
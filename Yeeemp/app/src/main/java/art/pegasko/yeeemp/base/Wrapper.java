@@ -25,14 +25,21 @@
 
 package art.pegasko.yeeemp.base;
 
+/**
+ * Holder of current database instance.
+ *
+ * Instance is accessed and swapped under Wrapper class monitor. Code replacing database holds the monitor while old
+ * instance is closed and new one is opened, so callers wait for the new instance instead of getting missing or
+ * closed one.
+ */
 public abstract class Wrapper {
     private static Wrapper instance;
 
-    public static Wrapper instance() {
+    public static synchronized Wrapper instance() {
         return Wrapper.instance;
     }
 
-    public static void setInstance(Wrapper instance) {
+    public static synchronized void setInstance(Wrapper instance) {
         Wrapper.instance = instance;
     }
 
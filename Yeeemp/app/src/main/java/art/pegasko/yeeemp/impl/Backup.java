@@ -0,0 +1,748 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import art.pegasko.yeeemp.base.Wrapper;
+
+/**
+ * Incremental backups of internal db.
+ *
+ * Triggers append keys of changed rows of base tables to `change_log` (see schema version 6 in {@link Migrations}).
+ * Backup consists of full snapshot of database file and chain of deltas written after it. Each delta holds current
+ * values of rows changed since previous delta, or delete marks for rows that no longer exist, so writing it costs
+ * proportionally to number of changed rows. Written log rows are dropped from `change_log`.
+ *
+ * New snapshot replaces whole chain when there is none, when chain gets long or large compared to snapshot, when
+ * log grows large compared to database, when log does not continue chain, or when chain holds database replaced by
+ * import (see {@link #keepReplaced(Context)}). Database restored from backup continues its chain.
+ *
+ * Delta records are read under database monitor with single query, so they are consistent with log sequence they
+ * end at. Delta file is compressed and written after monitor is released. Snapshot is copied without monitor.
+ *
+ * Backup is stored in `backups` directory of internal storage:
+ * - snapshot-SEQ.db, copy of database file with all changes up to log sequence SEQ;
+ * - delta-SEQ.bin, gzipped changes from sequence of previous file up to SEQ.
+ */
+public class Backup {
+    public static final String TAG = Backup.class.getSimpleName();
+
+    private static final String BACKUP_DIR = "backups";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".db";
+    private static final String DELTA_PREFIX = "delta-";
+    private static final String DELTA_SUFFIX = ".bin";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /* Marks chain of database replaced by import, it is restorable but not continued */
+    private static final String REPLACED_MARK = "replaced";
+
+    /* Deltas in chain before it is compacted into new snapshot */
+    private static final int MAX_DELTAS = 48;
+
+    /* Chain is compacted when its total size exceeds this part of snapshot size */
+    private static final int MAX_DELTAS_SIZE_DIVISOR = 4;
+
+    /* Log rows before new snapshot is written instead of delta, bounds memory delta records are buffered in */
+    private static final long MAX_LOG_ROWS = 100000;
+
+    /* Approximate size of change_log row, log is also compacted when it exceeds part of database size */
+    private static final long LOG_ROW_BYTES = 32;
+
+    /* "YBD1", delta file header */
+    private static final int DELTA_MAGIC = 0x59424431;
+
+    // Table codes written by change_log triggers
+    private static final int TABLE_QUEUE = 1;
+    private static final int TABLE_TAG = 2;
+    private static final int TABLE_EVENT = 3;
+    private static final int TABLE_EVENT_TAG = 4;
+    private static final int TABLE_QUEUE_EVENT = 5;
+
+    // Delta record kinds
+    private static final int RECORD_END = 0;
+    private static final int RECORD_UPSERT = 1;
+    private static final int RECORD_DELETE = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Result of backup run
+     */
+    public static class Report {
+        public boolean snapshot;
+        public long records;
+        public long bytes;
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Report{snapshot=");
+            sb.append(this.snapshot);
+            sb.append(",records=");
+            sb.append(this.records);
+            sb.append(",bytes=");
+            sb.append(this.bytes);
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Write delta or new snapshot of current database, blocking, must not be called on main thread
+     */
+    public static Report run(Context context) throws IOException {
+        SQLiteDatabase db = ((DBWrapper) Wrapper.instance()).db;
+        File dir = getBackupDir(context);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create " + dir);
+
+        // Files of chain belong to current database, it is not swapped until backup ends
+        DataUtils.FILES_LOCK.readLock().lock();
+        try {
+            boolean snapshotNeeded;
+            Delta delta = null;
+            synchronized (db) {
+                File snapshot = findSnapshot(dir);
+                File[] deltas = listDeltas(dir, snapshot == null ? 0 : getSequence(snapshot));
+
+                snapshotNeeded = (
+                    snapshot == null
+                    || new File(dir, REPLACED_MARK).exists()
+                    || !continuesChain(db, getChainSequence(snapshot, deltas))
+                    || isChainLong(snapshot, deltas)
+                    || isLogLarge(db)
+                );
+                if (!snapshotNeeded)
+                    delta = readDelta(db, getChainSequence(snapshot, deltas));
+            }
+
+            Report report = (snapshotNeeded ? writeSnapshot(context, db, dir) : writeDelta(db, dir, delta));
+            Log.i(TAG, "Backup finished: " + report);
+            return report;
+        } finally {
+            DataUtils.FILES_LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if backup exists
+     */
+    public static boolean hasBackup(Context context) {
+        return findSnapshot(getBackupDir(context)) != null;
+    }
+
+    /**
+     * Drop backup chain, so next run writes new snapshot. Called when database is reset.
+     */
+    static void invalidate(Context context) {
+        File[] files = getBackupDir(context).listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Replace chain with snapshot of current database, blocking. Called before database is replaced by import, so
+     * replaced data can be restored until next run, which starts new chain for imported database.
+     *
+     * Must be called with database closed and {@link DataUtils#FILES_LOCK} held for write.
+     */
+    static void keepReplaced(Context context) throws IOException {
+        File dir = getBackupDir(context);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create " + dir);
+
+        copySnapshot(context, dir);
+
+        File mark = new File(dir, REPLACED_MARK);
+        if (!mark.createNewFile() && !mark.exists())
+            throw new IOException("Failed to create " + mark);
+    }
+
+    /**
+     * Build database from backup at `target`, blocking.
+     *
+     * Snapshot is copied and migrated, deltas are applied in one transaction, then derived tables are rebuilt and
+     * change log is cleared. Chain is applied up to first missing delta. Log sequence is set to the restored one,
+     * so once restored database replaces internal one, backup continues the chain.
+     */
+    static void restore(Context context, File target) throws IOException {
+        File dir = getBackupDir(context);
+        File snapshot = findSnapshot(dir);
+        if (snapshot == null)
+            throw new FileNotFoundException("No backup");
+
+        long sequence = getSequence(snapshot);
+        File[] deltas = listDeltas(dir, sequence);
+
+        SQLiteDatabase.deleteDatabase(target);
+        DataUtils.copyFile(snapshot, target);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(target.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            Migrations.migrate(db);
+
+            db.beginTransaction();
+            try {
+                for (File delta : deltas) {
+                    long next = applyDelta(db, delta, sequence);
+                    if (next < 0) {
+                        Log.w(TAG, "Backup chain is broken at " + delta + ", restored up to sequence " + sequence);
+                        break;
+                    }
+
+                    sequence = next;
+                }
+
+                rebuildDerived(db);
+                db.execSQL("delete from change_log");
+                db.execSQL("delete from sqlite_sequence where name = 'change_log'");
+                db.execSQL("insert into sqlite_sequence (name, seq) values ('change_log', ?)", new Object[] { sequence });
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private static File getBackupDir(Context context) {
+        return new File(context.getFilesDir(), BACKUP_DIR);
+    }
+
+    /**
+     * Parse log sequence from backup file name
+     */
+    private static long getSequence(File file) {
+        String name = file.getName();
+        String prefix = name.startsWith(SNAPSHOT_PREFIX) ? SNAPSHOT_PREFIX : DELTA_PREFIX;
+        String suffix = name.startsWith(SNAPSHOT_PREFIX) ? SNAPSHOT_SUFFIX : DELTA_SUFFIX;
+
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /* Sequence is zero padded, so names sort same as sequences */
+    private static String formatSequence(long sequence) {
+        return String.format(Locale.ROOT, "%020d", sequence);
+    }
+
+    /**
+     * @return latest snapshot or null if there is none
+     */
+    private static File findSnapshot(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return null;
+
+        File snapshot = null;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SNAPSHOT_PREFIX) || !name.endsWith(SNAPSHOT_SUFFIX) || getSequence(file) < 0)
+                continue;
+
+            if (snapshot == null || getSequence(file) > getSequence(snapshot))
+                snapshot = file;
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * @return deltas written after sequence, in order
+     */
+    private static File[] listDeltas(File dir, long after) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return new File[0];
+
+        int count = 0;
+        File[] deltas = new File[files.length];
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(DELTA_PREFIX) || !name.endsWith(DELTA_SUFFIX) || getSequence(file) <= after)
+                continue;
+
+            deltas[count++] = file;
+        }
+
+        deltas = Arrays.copyOf(deltas, count);
+        Arrays.sort(deltas);
+        return deltas;
+    }
+
+    private static long getChainSequence(File snapshot, File[] deltas) {
+        return deltas.length == 0 ? getSequence(snapshot) : getSequence(deltas[deltas.length - 1]);
+    }
+
+    private static boolean isChainLong(File snapshot, File[] deltas) {
+        if (deltas.length >= MAX_DELTAS)
+            return true;
+
+        long size = 0;
+        for (File delta : deltas) {
+            size += delta.length();
+        }
+
+        return size > snapshot.length() / MAX_DELTAS_SIZE_DIVISOR;
+    }
+
+    /**
+     * Check whether log grew large enough that snapshot is cheaper than delta
+     *
+     * !synchronized
+     */
+    private static boolean isLogLarge(SQLiteDatabase db) {
+        long rows = Utils.getLongAndClose(db.rawQuery("select count(*) from change_log", null), 0);
+        if (rows > MAX_LOG_ROWS)
+            return true;
+
+        long pageCount = Utils.getLongAndClose(db.rawQuery("PRAGMA page_count", null), 0);
+        long pageSize = Utils.getLongAndClose(db.rawQuery("PRAGMA page_size", null), 0);
+        return rows * LOG_ROW_BYTES > pageCount * pageSize / MAX_DELTAS_SIZE_DIVISOR;
+    }
+
+    /* !synchronized */
+    private static long getLogSequence(SQLiteDatabase db) {
+        return Utils.getLongAndClose(
+            db.rawQuery("select ifnull((select seq from sqlite_sequence where name = 'change_log'), 0)", null),
+            0
+        );
+    }
+
+    /**
+     * Check that log holds all changes after sequence. Log rows are dropped only after they are written, so first
+     * row must follow chain directly, and sequence can not go back unless database was replaced.
+     *
+     * !synchronized
+     */
+    private static boolean continuesChain(SQLiteDatabase db, long sequence) {
+        long logSequence = getLogSequence(db);
+        if (logSequence < sequence)
+            return false;
+
+        long first = Utils.getLongAndClose(db.rawQuery("select ifnull(min(id), 0) from change_log", null), 0);
+        if (first == 0)
+            return logSequence == sequence;
+
+        return first == sequence + 1;
+    }
+
+    /**
+     * Copy snapshot of database into new snapshot file and drop previous chain.
+     *
+     * Copy is taken without database monitor, see {@link DataUtils#snapshotDatabase(Context, File)}. Its log
+     * sequence is read from the copy, so log rows written meanwhile stay for next delta.
+     */
+    private static Report writeSnapshot(Context context, SQLiteDatabase db, File dir) throws IOException {
+        File snapshot = copySnapshot(context, dir);
+        long sequence = getSequence(snapshot);
+
+        synchronized (db) {
+            db.execSQL("delete from change_log where id <= ?", new Object[] { sequence });
+        }
+
+        Report report = new Report();
+        report.snapshot = true;
+        report.bytes = snapshot.length();
+        return report;
+    }
+
+    /**
+     * Copy snapshot of database into snapshot file named by its log sequence and delete other backup files
+     *
+     * @return snapshot file
+     */
+    private static File copySnapshot(Context context, File dir) throws IOException {
+        File temp = new File(dir, SNAPSHOT_PREFIX + "new" + SNAPSHOT_SUFFIX + TEMP_SUFFIX);
+        DataUtils.snapshotDatabase(context, temp);
+
+        long sequence;
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(temp.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            sequence = getLogSequence(copy);
+        } finally {
+            copy.close();
+        }
+
+        File snapshot = new File(dir, SNAPSHOT_PREFIX + formatSequence(sequence) + SNAPSHOT_SUFFIX);
+        if (!temp.renameTo(snapshot))
+            throw new IOException("Failed to rename " + temp + " to " + snapshot);
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.equals(snapshot))
+                    file.delete();
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Delta records read from database, not yet written
+     */
+    private static class Delta {
+        final long from;
+        final long to;
+        final long records;
+        final ByteArrayOutputStream data;
+
+        Delta(long from, long to, long records, ByteArrayOutputStream data) {
+            this.from = from;
+            this.to = to;
+            this.records = records;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Read changes logged after sequence, each changed row once in order of its last change, with its current values
+     *
+     * !synchronized
+     *
+     * @return delta or null if nothing was logged after sequence
+     */
+    private static Delta readDelta(SQLiteDatabase db, long sequence) throws IOException {
+        long logSequence = getLogSequence(db);
+        if (logSequence == sequence)
+            return null;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        long records = 0;
+
+        // Values are joined to log in one query instead of one query per changed row
+        Cursor cursor = db.rawQuery(
+            "select\n" +
+            "    log.tbl,\n" +
+            "    log.key1,\n" +
+            "    log.key2,\n" +
+            "    case log.tbl\n" +
+            "        when " + TABLE_QUEUE + " then queue.id is not null\n" +
+            "        when " + TABLE_TAG + " then tag.id is not null\n" +
+            "        when " + TABLE_EVENT + " then event.id is not null\n" +
+            "        when " + TABLE_EVENT_TAG + " then event_tag.event_id is not null\n" +
+            "        when " + TABLE_QUEUE_EVENT + " then queue_event.queue_id is not null\n" +
+            "        else 0\n" +
+            "    end,\n" +
+            "    queue.name,\n" +
+            "    tag.queue_id,\n" +
+            "    tag.name,\n" +
+            "    event.timestamp,\n" +
+            "    event.comment\n" +
+            "from (\n" +
+            "    select tbl, key1, key2, max(id) as last_id\n" +
+            "    from change_log\n" +
+            "    where id <= ?\n" +
+            "    group by tbl, key1, key2\n" +
+            ") as log\n" +
+            "left join queue on log.tbl = " + TABLE_QUEUE + " and queue.id = log.key1\n" +
+            "left join tag on log.tbl = " + TABLE_TAG + " and tag.id = log.key1\n" +
+            "left join event on log.tbl = " + TABLE_EVENT + " and event.id = log.key1\n" +
+            "left join event_tag on log.tbl = " + TABLE_EVENT_TAG + "\n" +
+            "    and event_tag.event_id = log.key1 and event_tag.tag_id = log.key2\n" +
+            "left join queue_event on log.tbl = " + TABLE_QUEUE_EVENT + "\n" +
+            "    and queue_event.queue_id = log.key1 and queue_event.event_id = log.key2\n" +
+            "order by log.last_id",
+            new String[] { Long.toString(logSequence) }
+        );
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    if (writeRecord(out, cursor))
+                        records += 1;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        out.flush();
+        return new Delta(sequence, logSequence, records, data);
+    }
+
+    /**
+     * Write delta into new file and drop its log rows, delta is null if nothing was logged
+     */
+    private static Report writeDelta(SQLiteDatabase db, File dir, Delta delta) throws IOException {
+        Report report = new Report();
+        if (delta == null)
+            return report;
+
+        File temp = new File(dir, DELTA_PREFIX + formatSequence(delta.to) + DELTA_SUFFIX + TEMP_SUFFIX);
+        File file = new File(dir, DELTA_PREFIX + formatSequence(delta.to) + DELTA_SUFFIX);
+
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(fos));
+            DataOutputStream out = new DataOutputStream(gzip);
+
+            out.writeInt(DELTA_MAGIC);
+            out.writeLong(delta.from);
+            out.writeLong(delta.to);
+            delta.data.writeTo(out);
+            out.writeByte(RECORD_END);
+            out.flush();
+            gzip.finish();
+            gzip.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        if (!temp.renameTo(file))
+            throw new IOException("Failed to rename " + temp + " to " + file);
+
+        // Rows logged meanwhile have higher ids and go to next delta
+        synchronized (db) {
+            db.execSQL("delete from change_log where id <= ?", new Object[] { delta.to });
+        }
+
+        report.records = delta.records;
+        report.bytes = file.length();
+        return report;
+    }
+
+    /**
+     * Write current values of logged row or delete mark if row does not exist
+     *
+     * @return false if row of unknown table was skipped
+     */
+    private static boolean writeRecord(DataOutputStream out, Cursor cursor) throws IOException {
+        int table = cursor.getInt(0);
+        if (table < TABLE_QUEUE || table > TABLE_QUEUE_EVENT) {
+            Log.w(TAG, "Unknown change log table " + table);
+            return false;
+        }
+
+        boolean exists = cursor.getInt(3) != 0;
+
+        out.writeByte(exists ? RECORD_UPSERT : RECORD_DELETE);
+        out.writeByte(table);
+        out.writeLong(cursor.getLong(1));
+        out.writeLong(cursor.getLong(2));
+
+        if (!exists)
+            return true;
+
+        switch (table) {
+            case TABLE_QUEUE:
+                writeString(out, cursor.isNull(4) ? null : cursor.getString(4));
+                break;
+            case TABLE_TAG:
+                out.writeLong(cursor.getLong(5));
+                writeString(out, cursor.isNull(6) ? null : cursor.getString(6));
+                break;
+            case TABLE_EVENT:
+                out.writeBoolean(!cursor.isNull(7));
+                out.writeLong(cursor.getLong(7));
+                writeString(out, cursor.isNull(8) ? null : cursor.getString(8));
+                break;
+        }
+
+        return true;
+    }
+
+    /**
+     * Apply delta continuing chain at sequence
+     *
+     * !synchronized
+     *
+     * @return sequence delta ends at or -1 if it does not continue chain
+     */
+    private static long applyDelta(SQLiteDatabase db, File delta, long sequence) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(delta))));
+        try {
+            if (in.readInt() != DELTA_MAGIC)
+                throw new IOException("Not a backup delta: " + delta);
+
+            long from = in.readLong();
+            long to = in.readLong();
+            if (from != sequence)
+                return -1;
+
+            SQLiteStatement[] upserts = new SQLiteStatement[] {
+                null,
+                db.compileStatement("insert or replace into queue (id, name) values (?, ?)"),
+                db.compileStatement("insert or replace into tag (id, queue_id, name) values (?, ?, ?)"),
+                db.compileStatement("insert or replace into event (id, timestamp, comment) values (?, ?, ?)"),
+                db.compileStatement("insert or ignore into event_tag (event_id, tag_id) values (?, ?)"),
+                db.compileStatement("insert or ignore into queue_event (queue_id, event_id) values (?, ?)"),
+            };
+            SQLiteStatement[] deletes = new SQLiteStatement[] {
+                null,
+                db.compileStatement("delete from queue where id = ?"),
+                db.compileStatement("delete from tag where id = ?"),
+                db.compileStatement("delete from event where id = ?"),
+                db.compileStatement("delete from event_tag where event_id = ? and tag_id = ?"),
+                db.compileStatement("delete from queue_event where queue_id = ? and event_id = ?"),
+            };
+
+            try {
+                int kind;
+                while ((kind = in.readUnsignedByte()) != RECORD_END) {
+                    int table = in.readUnsignedByte();
+                    if (table < TABLE_QUEUE || table > TABLE_QUEUE_EVENT || (kind != RECORD_UPSERT && kind != RECORD_DELETE))
+                        throw new IOException("Corrupted backup delta: " + delta);
+
+                    long key1 = in.readLong();
+                    long key2 = in.readLong();
+
+                    if (kind == RECORD_DELETE) {
+                        SQLiteStatement statement = deletes[table];
+                        statement.bindLong(1, key1);
+                        if (table == TABLE_EVENT_TAG || table == TABLE_QUEUE_EVENT)
+                            statement.bindLong(2, key2);
+                        statement.executeUpdateDelete();
+                        continue;
+                    }
+
+                    SQLiteStatement statement = upserts[table];
+                    statement.clearBindings();
+                    statement.bindLong(1, key1);
+                    switch (table) {
+                        case TABLE_QUEUE:
+                            bindString(statement, 2, readString(in));
+                            break;
+                        case TABLE_TAG:
+                            statement.bindLong(2, in.readLong());
+                            bindString(statement, 3, readString(in));
+                            break;
+                        case TABLE_EVENT: {
+                            boolean hasTimestamp = in.readBoolean();
+                            long timestamp = in.readLong();
+                            if (hasTimestamp)
+                                statement.bindLong(2, timestamp);
+                            bindString(statement, 3, readString(in));
+                            break;
+                        }
+                        default:
+                            statement.bindLong(2, key2);
+                            break;
+                    }
+                    statement.executeInsert();
+                }
+            } finally {
+                for (int index = 1; index < upserts.length; ++index) {
+                    upserts[index].close();
+                    deletes[index].close();
+                }
+            }
+
+            return to;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Recompute values maintained by triggers, which fire out of order while deltas are applied
+     *
+     * !synchronized
+     */
+    private static void rebuildDerived(SQLiteDatabase db) {
+        db.execSQL(
+            "update queue_event" +
+            "    set timestamp = ifnull((select timestamp from event where event.id = queue_event.event_id), 0)"
+        );
+
+        db.execSQL("delete from queue_stat");
+        db.execSQL(
+            "insert into queue_stat (queue_id, event_count)" +
+            "    select id, (select count(*) from queue_event where queue_event.queue_id = queue.id) from queue"
+        );
+
+        db.execSQL("delete from queue_tag");
+        db.execSQL(
+            "insert into queue_tag (queue_id, tag_id, event_count)" +
+            "    select queue_event.queue_id, event_tag.tag_id, count(*)" +
+            "    from queue_event" +
+            "    inner join event_tag on queue_event.event_id = event_tag.event_id" +
+            "    group by queue_event.queue_id, event_tag.tag_id"
+        );
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value == null)
+            return;
+
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -43,13 +43,26 @@ public class DBWrapper extends Wrapper {
     public static final boolean DEBUG = false;
 
     public DBWrapper(Context context) {
-        this.db = openDB(context, DB_PATH);
+        this(context, StorageProfile.DEFAULT);
+    }
+
+    public DBWrapper(Context context, StorageProfile profile) {
+        // Handles of previous database must not be reused
+        EventImpl.clearCache();
+        TagImpl.clearCache();
+
+        this.db = openDB(context, DB_PATH, profile);
         this.queueMaker = new QueueMakerImpl(this.db);
         this.eventMaker = new EventMakerImpl(this.db);
         this.tagMaker = new TagMakerImpl(this.db);
     }
 
     // Fields
+
+    /**
+     * Writes are serialized on this object monitor, reads do not lock. With WAL enabled reads are executed on
+     * separate pooled connections and see last committed state without waiting for running write transaction.
+     */
     SQLiteDatabase db;
     QueueMaker queueMaker;
     EventMaker eventMaker;
@@ -67,55 +80,6 @@ public class DBWrapper extends Wrapper {
         return this.tagMaker;
     }
 
-    /**
-     * SQLite initializer script
-     */
-    // @formatter:off
-    private static final String[] INIT_SQL = new String[] {
-        "CREATE TABLE IF NOT EXISTS tag (" +
-        "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
-        "    queue_id INTEGER," +
-        "    name TEXT" +
-        ");",
-
-        "CREATE INDEX IF NOT EXISTS tag__queue_id ON tag(queue_id);",
-
-        "CREATE INDEX IF NOT EXISTS tag__name ON tag(name);",
-
-        "CREATE TABLE IF NOT EXISTS event (" +
-        "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
-        "    timestamp INTEGER," +
-        "    comment TEXT" +
-        ");",
-
-        "CREATE TABLE IF NOT EXISTS queue (" +
-        "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
-        "    name TEXT" +
-        ");",
-
-        "CREATE TABLE IF NOT EXISTS event_tag (" +
-        "    event_id INTEGER," +
-        "    tag_id INTEGER" +
-        ");",
-
-        "CREATE INDEX IF NOT EXISTS event_tag__event_id_tag_id ON event_tag(event_id, tag_id);",
-
-        "CREATE INDEX IF NOT EXISTS event_tag__event_id ON event_tag(event_id);",
-
-        "CREATE INDEX IF NOT EXISTS event_tag__tag_id ON event_tag(tag_id);",
-
-        "CREATE TABLE IF NOT EXISTS queue_event (" +
-        "    queue_id INTEGER," +
-        "    event_id INTEGER" +
-        ");",
-
-        "CREATE INDEX IF NOT EXISTS queue_event__event_id_tag_id ON queue_event(queue_id, event_id);",
-
-        "CREATE INDEX IF NOT EXISTS queue_event__event_id ON queue_event(queue_id);",
-
-        "CREATE INDEX IF NOT EXISTS queue_event__tag_id ON queue_event(event_id);"
-    };
-
     private static String DB_PATH = "database.db";
 
     /**
@@ -125,12 +89,7 @@ public class DBWrapper extends Wrapper {
      */
     private static void initDB(SQLiteDatabase db) {
         try {
-            Log.d(TAG, "Creating database");
-            for (String query: INIT_SQL) {
-                Log.d(TAG, query);
-                db.execSQL(query);
-            }
-            Log.d(TAG, "Database created");
+            Migrations.migrate(db);
         } catch (SQLiteException e) {
             Log.wtf(TAG, e);
         }
@@ -143,10 +102,30 @@ public class DBWrapper extends Wrapper {
         return new File(context.getFilesDir(), DB_PATH);
     }
 
+    /**
+     * Apply connection tuning.
+     *
+     * PRAGMAs executed here affect primary connection only, read connections of WAL pool use framework defaults.
+     * Synchronous only matters for commits, which always run on primary connection.
+     */
+    private static void applyProfile(SQLiteDatabase db, StorageProfile profile) {
+        try {
+            if (profile.writeAheadLogging) {
+                db.enableWriteAheadLogging();
+            } else {
+                db.disableWriteAheadLogging();
+            }
+
+            db.execSQL("PRAGMA synchronous = " + profile.synchronous);
+        } catch (SQLiteException e) {
+            Log.wtf(TAG, e);
+        }
+    }
+
     /**
      * @return opened and initialized database
      */
-    private static SQLiteDatabase openDB(Context context, String dbPath) {
+    private static SQLiteDatabase openDB(Context context, String dbPath, StorageProfile profile) {
         if (DBWrapper.DEBUG) {
             try {
                 new File(context.getFilesDir(), dbPath).delete();
@@ -159,11 +138,37 @@ public class DBWrapper extends Wrapper {
         SQLiteDatabase db;
         if (!path.exists()) {
             db = SQLiteDatabase.openDatabase(path.getPath(), null, SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY);
+
+            // Lets maintenance return free pages without full VACUUM. Mode changes only on VACUUM once framework
+            // created its metadata table, which is instant on empty database.
+            try {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            } catch (SQLiteException e) {
+                Log.wtf(TAG, e);
+            }
         } else {
             db = SQLiteDatabase.openDatabase(path.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
         }
 
+        applyProfile(db, profile);
         initDB(db);
+
+        // Stats of queues left stale by import that did not finish
+        try {
+            EventImporter.rebuildStaleQueues(db);
+        } catch (SQLiteException e) {
+            Log.wtf(TAG, e);
+        }
+
+        // Enabled after migrations, rebuilding tables with foreign keys enabled would cascade deletes. Applies to all
+        // pooled connections, unlike PRAGMA.
+        try {
+            db.setForeignKeyConstraintsEnabled(true);
+        } catch (SQLiteException e) {
+            Log.wtf(TAG, e);
+        }
+
         return db;
     }
 }
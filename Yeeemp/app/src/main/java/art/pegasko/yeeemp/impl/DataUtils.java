@@ -26,7 +26,9 @@
 package art.pegasko.yeeemp.impl;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.FileUtils;
 
@@ -37,92 +39,457 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import art.pegasko.yeeemp.base.Wrapper;
-import art.pegasko.yeeemp.ui.activity.Utils;
 
 // TODO: Better data management API
 public class DataUtils {
     public static final String DATE_FORMAT = "yyyy-MM-dd-HH-mm-ss";
 
+    // Same output as DATE_FORMAT
+    private static final TimestampFormatter TIMESTAMP_FORMATTER = new TimestampFormatter("yyyy-MM-dd", "-", "-");
+
     public static String formatTs(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat(DataUtils.DATE_FORMAT);
-        return sdf.format(timestamp);
+        return TIMESTAMP_FORMATTER.format(timestamp);
+    }
+
+    /* Bytes transferred between progress reports */
+    private static final long COPY_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /* Buffer size for streams without file channel */
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Receives copy progress, called on copying thread
+     */
+    public interface Progress {
+        /**
+         * @param total size of source or -1 if unknown
+         */
+        void onProgress(long copied, long total);
     }
 
-    private static void copyStream(InputStream fis, OutputStream fos) throws IOException {
-        byte[] buffer = new byte[1024];
+    /**
+     * Copy stream content.
+     *
+     * File streams (including ones opened by content resolver for regular files) are copied between channels with
+     * `transferTo()`, which lets kernel move data without copying it through Java heap. Other streams are copied
+     * through large buffer.
+     */
+    private static void copyStream(InputStream fis, OutputStream fos, Progress progress) throws IOException {
+        if (fis instanceof FileInputStream && fos instanceof FileOutputStream) {
+            FileChannel in = ((FileInputStream) fis).getChannel();
+            FileChannel out = ((FileOutputStream) fos).getChannel();
+
+            long total = -1;
+            try {
+                total = in.size();
+            } catch (IOException e) {
+                // Not a regular file, size unknown
+            }
+
+            if (total > 0) {
+                copyChannel(in, out, total, progress);
+                return;
+            }
+        }
+
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long copied = 0;
         int lengthRead;
         while ((lengthRead = fis.read(buffer)) > 0) {
             fos.write(buffer, 0, lengthRead);
-            fos.flush();
+            copied += lengthRead;
+
+            if (progress != null)
+                progress.onProgress(copied, -1);
+        }
+        fos.flush();
+    }
+
+    private static void copyChannel(FileChannel in, FileChannel out, long total, Progress progress) throws IOException {
+        long position = in.position();
+        long copied = 0;
+        while (position < total) {
+            long transferred = in.transferTo(position, Math.min(COPY_CHUNK_SIZE, total - position), out);
+            if (transferred <= 0)
+                throw new IOException("Failed to copy at " + position + " of " + total + " bytes");
+
+            position += transferred;
+            copied += transferred;
+
+            if (progress != null)
+                progress.onProgress(copied, total);
+        }
+
+        out.force(false);
+    }
+
+    /**
+     * Held for write while files of internal db are swapped, for read while they are copied without database
+     * monitor. Taken before database monitor.
+     */
+    static final ReentrantReadWriteLock FILES_LOCK = new ReentrantReadWriteLock();
+
+    /* Savepoint holding read transaction of snapshot */
+    private static final String SNAPSHOT_SAVEPOINT = "snapshot";
+
+    /**
+     * Copy consistent snapshot of internal db into new database file at `target`, blocking.
+     *
+     * Copy is built on connection of its own with internal db attached: schema and rows are copied table by table
+     * in one deferred transaction, which pins single WAL snapshot of internal db, then indexes and triggers are
+     * created. App writes are not held, WAL readers do not block writer. VACUUM INTO would do the same, but needs
+     * SQLite 3.27 (API 30).
+     *
+     * !synchronized, must not be called under database monitor
+     */
+    static void snapshotDatabase(Context context, File target) {
+        FILES_LOCK.readLock().lock();
+        try {
+            SQLiteDatabase.deleteDatabase(target);
+
+            // Without localized collators framework does not create android_metadata, so new file stays empty
+            // until auto_vacuum is set
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                target.getPath(),
+                null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS
+            );
+            try {
+                db.execSQL("attach database ? as source", new Object[] { DBWrapper.getDBPath(context).getPath() });
+                try {
+                    db.execSQL(
+                        "PRAGMA main.auto_vacuum = " +
+                        Utils.getLongAndClose(db.rawQuery("PRAGMA source.auto_vacuum", null), 0)
+                    );
+
+                    // Framework transactions are exclusive and would take write lock of internal db
+                    db.execSQL("SAVEPOINT " + SNAPSHOT_SAVEPOINT);
+                    try {
+                        copySchema(db);
+                        db.execSQL("RELEASE " + SNAPSHOT_SAVEPOINT);
+                    } catch (SQLiteException e) {
+                        db.execSQL("ROLLBACK TO " + SNAPSHOT_SAVEPOINT);
+                        db.execSQL("RELEASE " + SNAPSHOT_SAVEPOINT);
+                        throw e;
+                    }
+                } finally {
+                    db.execSQL("detach database source");
+                }
+            } finally {
+                db.close();
+            }
+        } finally {
+            FILES_LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copy tables with rows, then indexes, triggers and views, from attached `source` into main database
+     *
+     * !synchronized
+     */
+    private static void copySchema(SQLiteDatabase db) {
+        db.execSQL(
+            "PRAGMA main.user_version = " + Utils.getLongAndClose(db.rawQuery("PRAGMA source.user_version", null), 0)
+        );
+
+        Cursor tables = db.rawQuery(
+            "select name, sql from source.sqlite_master where type = 'table' and name not like 'sqlite_%'",
+            null
+        );
+        if (tables != null) {
+            try {
+                while (tables.moveToNext()) {
+                    String name = tables.getString(0).replace("\"", "\"\"");
+                    db.execSQL(tables.getString(1));
+                    db.execSQL("insert into main.\"" + name + "\" select * from source.\"" + name + "\"");
+                }
+            } finally {
+                tables.close();
+            }
+        }
+
+        // Created by first table with AUTOINCREMENT
+        if (Utils.findResultAndClose(db.rawQuery("select 1 from main.sqlite_master where name = 'sqlite_sequence'", null))) {
+            db.execSQL("delete from main.sqlite_sequence");
+            db.execSQL("insert into main.sqlite_sequence select * from source.sqlite_sequence");
+        }
+
+        // Triggers are created after rows are copied, so they do not fire on copy
+        Cursor objects = db.rawQuery(
+            "select sql from source.sqlite_master" +
+            "    where type in ('index', 'trigger', 'view') and sql is not null and name not like 'sqlite_%'" +
+            "    order by case type when 'index' then 0 else 1 end",
+            null
+        );
+        if (objects != null) {
+            try {
+                while (objects.moveToNext()) {
+                    db.execSQL(objects.getString(0));
+                }
+            } finally {
+                objects.close();
+            }
         }
     }
 
-    /* just copy internal db to external storage */
     public static void exportDatabase(Context context, Uri uri) throws Exception {
-        File internalFile = DBWrapper.getDBPath(context);
-        InputStream fis = new FileInputStream(internalFile);
-        OutputStream fos = context.getContentResolver().openOutputStream(uri);
+        exportDatabase(context, uri, null);
+    }
+
+    /* Name of temporary file exported snapshot is built in, same directory as live database */
+    private static final String EXPORT_PATH = "export.db";
 
-        copyStream(fis, fos);
+    /**
+     * Copy consistent snapshot of internal db to external storage.
+     *
+     * Snapshot is built in temporary file with {@link #snapshotDatabase(Context, File)}, then streamed out with no
+     * lock held, so app writes are not blocked by slow destination.
+     */
+    public static void exportDatabase(Context context, Uri uri, Progress progress) throws Exception {
+        File exportFile = new File(DBWrapper.getDBPath(context).getParentFile(), EXPORT_PATH);
 
-        fis.close();
-        fos.close();
+        try {
+            snapshotDatabase(context, exportFile);
+
+            InputStream fis = new FileInputStream(exportFile);
+            OutputStream fos = context.getContentResolver().openOutputStream(uri, "wt");
+            if (fos == null) {
+                fis.close();
+                throw new FileNotFoundException("Failed to open " + uri);
+            }
+
+            try {
+                copyStream(fis, fos, progress);
+            } finally {
+                fis.close();
+                fos.close();
+            }
+        } finally {
+            SQLiteDatabase.deleteDatabase(exportFile);
+        }
     }
 
-    /* just copy external db to internal storage */
+    /* Name of temporary file imported database is validated in, same directory as live database */
+    private static final String IMPORT_PATH = "import.db";
+
+    /**
+     * Replace internal db with external one.
+     *
+     * External file is copied into temporary file next to internal db, checked and migrated there, then renamed over
+     * internal db. Live database is closed only for the rename, so file that failed checks never becomes live and
+     * live database stays untouched. Database is reopened after replace even if rename failed. Replaced database
+     * is kept as backup until next backup run, see {@link Backup#keepReplaced(Context)}.
+     *
+     * @throws SQLiteException if external file is not valid database of supported version
+     */
     public static void importDatabase(Context context, Uri uri) throws Exception {
         File internalFile = DBWrapper.getDBPath(context);
-        InputStream fis = context.getContentResolver().openInputStream(uri);
-        OutputStream fos = new FileOutputStream(internalFile);
+        File importFile = new File(internalFile.getParentFile(), IMPORT_PATH);
+        SQLiteDatabase.deleteDatabase(importFile);
 
-        copyStream(fis, fos);
+        try {
+            copyToFile(context, uri, importFile);
+            prepareImportedDatabase(importFile);
 
-        fis.close();
-        fos.close();
+            swapDatabase(context, (File file) -> {
+                Backup.keepReplaced(context);
+                replaceFile(file, importFile);
+            });
+        } finally {
+            SQLiteDatabase.deleteDatabase(importFile);
+        }
     }
 
-    public static void backupDatabase(Context context) throws IOException {
+    /* Name of temporary file backup is restored in */
+    private static final String RESTORE_PATH = "restore.db";
+
+    /**
+     * Replace internal db with one restored from {@link Backup}.
+     *
+     * Restored database is checked same as imported one before it replaces internal db. Backup chain is kept,
+     * restored database continues it.
+     */
+    public static void restoreBackup(Context context) throws Exception {
         File internalFile = DBWrapper.getDBPath(context);
-        File backupFile = new File(context.getFilesDir(), "backup.db");
+        File restoreFile = new File(internalFile.getParentFile(), RESTORE_PATH);
+
+        try {
+            Backup.restore(context, restoreFile);
+            prepareImportedDatabase(restoreFile);
+            swapDatabase(context, (File file) -> replaceFile(file, restoreFile));
+        } finally {
+            SQLiteDatabase.deleteDatabase(restoreFile);
+        }
+    }
+
+    /**
+     * Rename checked file over closed internal db
+     */
+    private static void replaceFile(File internalFile, File file) throws IOException {
+        // Journal left by closed database must not be applied to new file
+        deleteJournal(internalFile);
+
+        if (!file.renameTo(internalFile))
+            throw new IOException("Failed to replace " + internalFile + " with " + file);
+    }
+
+    /**
+     * Delete internal db and open new empty one. Backup chain of deleted database is dropped.
+     */
+    public static void resetDatabase(Context context) throws IOException {
+        swapDatabase(context, (File internalFile) -> {
+            SQLiteDatabase.deleteDatabase(internalFile);
+            Backup.invalidate(context);
+        });
+    }
+
+    private interface FileChange {
+        void change(File internalFile) throws IOException;
+    }
 
-        FileInputStream fis = new FileInputStream(internalFile);
-        FileOutputStream fos = new FileOutputStream(backupFile);
+    /**
+     * Close internal db, change its files and reopen it even if change failed.
+     *
+     * Runs under {@link #FILES_LOCK}, database monitor, then Wrapper monitor, so no snapshot copies files being
+     * replaced, no write runs against closed database and {@link Wrapper#instance()} callers wait for reopened
+     * database instead of getting closed one. Locks must be taken in this order: code holding database monitor may
+     * call {@link Wrapper#instance()}.
+     */
+    private static void swapDatabase(Context context, FileChange change) throws IOException {
+        File internalFile = DBWrapper.getDBPath(context);
 
-        copyStream(fis, fos);
+        FILES_LOCK.writeLock().lock();
+        try {
+            while (true) {
+                SQLiteDatabase db = ((DBWrapper) DBWrapper.instance()).db;
+                synchronized (db) {
+                    synchronized (Wrapper.class) {
+                        // Database may be replaced by other swap while waiting for its monitor
+                        if (((DBWrapper) DBWrapper.instance()).db != db)
+                            continue;
 
-        fis.close();
-        fos.close();
+                        closeDatabase(db);
+                        try {
+                            change.change(internalFile);
+                        } finally {
+                            Init.reinitDB(context);
+                        }
+                        return;
+                    }
+                }
+            }
+        } finally {
+            FILES_LOCK.writeLock().unlock();
+        }
     }
 
-    public static void restoreDatabase(Context context) throws IOException {
+    /* Name of temporary file merged database is validated in */
+    private static final String MERGE_PATH = "merge.db";
+
+    /**
+     * Merge external db into internal one.
+     *
+     * External file is validated and migrated same as on import, then merged on live connection in one write
+     * transaction, see {@link Merge}. Internal db stays open, readers see it unchanged until merge commits.
+     *
+     * @throws SQLiteException if external file is not valid database of supported version
+     */
+    public static Merge.Report mergeDatabase(Context context, Uri uri) throws Exception {
         File internalFile = DBWrapper.getDBPath(context);
-        File backupFile = new File(context.getFilesDir(), "backup.db");
+        File mergeFile = new File(internalFile.getParentFile(), MERGE_PATH);
+        SQLiteDatabase.deleteDatabase(mergeFile);
 
-        FileInputStream fis = new FileInputStream(backupFile);
-        FileOutputStream fos = new FileOutputStream(internalFile);
+        try {
+            copyToFile(context, uri, mergeFile);
+            prepareImportedDatabase(mergeFile);
 
-        copyStream(fis, fos);
+            SQLiteDatabase db = ((DBWrapper) DBWrapper.instance()).db;
+            synchronized (db) {
+                return Merge.run(db, mergeFile);
+            }
+        } finally {
+            SQLiteDatabase.deleteDatabase(mergeFile);
+        }
+    }
 
-        fis.close();
-        fos.close();
+    /* Copy internal file, content is synced to storage */
+    static void copyFile(File from, File to) throws IOException {
+        FileInputStream fis = new FileInputStream(from);
+        FileOutputStream fos = new FileOutputStream(to);
+        try {
+            copyStream(fis, fos, null);
+            fos.getFD().sync();
+        } finally {
+            fis.close();
+            fos.close();
+        }
     }
 
-    public static void deleteBackupDatabase(Context context) throws IOException {
-        File backupFile = new File(context.getFilesDir(), "backup.db");
-        backupFile.delete();
+    /* Copy external file to internal one */
+    private static void copyToFile(Context context, Uri uri, File file) throws IOException {
+        InputStream fis = context.getContentResolver().openInputStream(uri);
+        if (fis == null)
+            throw new FileNotFoundException("Failed to open " + uri);
+
+        OutputStream fos = new FileOutputStream(file);
+        try {
+            copyStream(fis, fos, null);
+        } finally {
+            fis.close();
+            fos.close();
+        }
     }
 
-    public static void closeDatabase() {
-        // Drop current database
-        ((DBWrapper) DBWrapper.instance()).db.close();
-        Wrapper.setInstance(null);
+    /**
+     * Check imported database and upgrade it to current schema.
+     *
+     * Database must pass integrity check and either have known schema version or be unversioned database with
+     * base tables. After migration, no row may violate foreign keys.
+     */
+    private static void prepareImportedDatabase(File importFile) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(importFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            String integrity = Utils.getStringAndClose(db.rawQuery("PRAGMA integrity_check", null), null);
+            if (!"ok".equals(integrity))
+                throw new SQLiteException("Database integrity check failed: " + integrity);
+
+            if (db.getVersion() == 0) {
+                long baseTables = Utils.getLongAndClose(
+                    db.rawQuery(
+                        "select count(*) from sqlite_master where type = 'table' and name in ('queue', 'event')",
+                        null
+                    ),
+                    0
+                );
+
+                if (baseTables != 2)
+                    throw new SQLiteException("Not a Yeeemp database");
+            }
+
+            Migrations.migrate(db);
+
+            if (Utils.findResultAndClose(db.rawQuery("PRAGMA foreign_key_check", null)))
+                throw new SQLiteException("Database has rows referencing missing rows");
+        } finally {
+            db.close();
+        }
     }
 
-    public static void deleteDatabase(Context context) throws IOException {
-        File internalFile = DBWrapper.getDBPath(context);
-        internalFile.delete();
+    /* Remove rollback journal and WAL files of closed database */
+    private static void deleteJournal(File file) {
+        new File(file.getPath() + "-journal").delete();
+        new File(file.getPath() + "-wal").delete();
+        new File(file.getPath() + "-shm").delete();
+    }
+
+    /* Drop current database, instance is left in place until reopened database replaces it */
+    private static void closeDatabase(SQLiteDatabase db) {
+        Statements.release(db);
+        db.close();
     }
 }
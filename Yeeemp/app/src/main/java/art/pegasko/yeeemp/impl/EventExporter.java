@@ -0,0 +1,430 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming gzipped export of events for analysis.
+ *
+ * Events are read queue by queue in keyset pages ordered by event id, each page read by forward-only cursor with
+ * tag names aggregated by query, and written out right away, so memory use does not depend on number of events.
+ * Entity objects are not created. All pages are read in one read transaction on dedicated read-only connection, so
+ * export is consistent snapshot while app keeps writing.
+ *
+ * CSV has header row and columns queue_id, queue_name, event_id, timestamp, datetime, comment, tags. Tags are
+ * sorted and separated by `;`, `;` and `\` within tag name are escaped with `\`. Missing timestamp is written as
+ * empty timestamp and datetime. Queue without events is written as row with only queue_name field, so
+ * {@link EventImporter} recreates it.
+ *
+ * Binary format is stream of records after "YEX1" magic:
+ * - 0x01 queue: varint id, string name;
+ * - 0x02 event of last queue: varint id, zigzag varint timestamp delta from previous event of the queue with
+ *   timestamp, string comment, varint tag count, strings tag names;
+ * - 0x03 event of last queue without timestamp: same as 0x02 without timestamp delta;
+ * - 0x00 end.
+ * Strings are varint of UTF-8 byte length plus one, followed by bytes, zero means null.
+ */
+public class EventExporter {
+    public static final String TAG = EventExporter.class.getSimpleName();
+
+    public enum Format {
+        CSV("csv"),
+        BINARY("bin");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    /* Events read by one cursor, page fits single cursor window */
+    private static final int PAGE_SIZE = 4096;
+
+    /* Buffer between encoder and gzip */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* Separates tag names aggregated by query, not expected in names */
+    private static final char TAG_SEPARATOR = '\u001f';
+
+    /* Separates and escapes tag names in CSV, same as in EventImporter */
+    private static final char CSV_TAG_SEPARATOR = ';';
+    private static final char CSV_TAG_ESCAPE = '\\';
+
+    /* Savepoint holding read transaction of export */
+    private static final String READ_SAVEPOINT = "event_export";
+
+    private static final int BINARY_MAGIC = 0x59455831;
+    private static final int BINARY_RECORD_END = 0;
+    private static final int BINARY_RECORD_QUEUE = 1;
+    private static final int BINARY_RECORD_EVENT = 2;
+    private static final int BINARY_RECORD_EVENT_NO_TIMESTAMP = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Same output as Utils.formatTs of ui
+    private static final TimestampFormatter TIMESTAMP_FORMATTER = new TimestampFormatter("yyyy-MM-dd", " ", ":");
+
+    /**
+     * Receives exported rows
+     */
+    private interface Sink {
+        void writeQueue(int id, String name) throws IOException;
+
+        /**
+         * @param timestamp event timestamp or null if event has none
+         */
+        void writeEvent(int id, Long timestamp, String comment, String tags) throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    /**
+     * Export all events of current database, blocking, must not be called on main thread
+     *
+     * @param progress receives number of exported and total events or null
+     * @return number of exported events
+     */
+    public static long export(Context context, Uri uri, Format format, DataUtils.Progress progress) throws IOException {
+        OutputStream fos = context.getContentResolver().openOutputStream(uri, "wt");
+        if (fos == null)
+            throw new FileNotFoundException("Failed to open " + uri);
+
+        // Single connection of its own, so every page is read on the connection holding read transaction
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(
+            DBWrapper.getDBPath(context).getPath(),
+            null,
+            SQLiteDatabase.OPEN_READONLY
+        );
+        try {
+            return export(db, fos, format, progress);
+        } finally {
+            db.close();
+            fos.close();
+        }
+    }
+
+    /**
+     * Export all events of `db` into gzipped stream, blocking. Stream is not closed.
+     */
+    static long export(SQLiteDatabase db, OutputStream out, Format format, DataUtils.Progress progress) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+        Sink sink = (format == Format.CSV ? new CsvSink(gzip) : new BinarySink(gzip));
+
+        // Framework transactions take write lock (BEGIN IMMEDIATE) and would block app writes. Savepoint is
+        // passed to SQLite as is and opens deferred transaction, which only pins WAL snapshot of first read.
+        db.execSQL("SAVEPOINT " + READ_SAVEPOINT);
+        long exported;
+        try {
+            exported = export(db, sink, progress);
+        } finally {
+            db.execSQL("RELEASE " + READ_SAVEPOINT);
+        }
+
+        sink.finish();
+        gzip.finish();
+        return exported;
+    }
+
+    private static long export(SQLiteDatabase db, Sink sink, DataUtils.Progress progress) throws IOException {
+        long total = Utils.getLongAndClose(db.rawQuery("select count(*) from queue_event", null), 0);
+        long exported = 0;
+
+        // Queues are few, their list is loaded whole
+        ArrayList<Integer> queueIds = new ArrayList<Integer>();
+        ArrayList<String> queueNames = new ArrayList<String>();
+        Cursor queues = db.rawQuery("select id, name from queue order by id", null);
+        if (queues != null) {
+            while (queues.moveToNext()) {
+                queueIds.add(queues.getInt(0));
+                queueNames.add(queues.getString(1));
+            }
+            queues.close();
+        }
+
+        for (int index = 0; index < queueIds.size(); ++index) {
+            int queueId = queueIds.get(index);
+            sink.writeQueue(queueId, queueNames.get(index));
+
+            int after = -1;
+            while (true) {
+                Cursor cursor = db.rawQuery(
+                    "select\n" +
+                    "    queue_event.event_id,\n" +
+                    "    event.timestamp,\n" +
+                    "    event.comment,\n" +
+                    "    (\n" +
+                    "        select group_concat(name, char(31)) from (\n" +
+                    "            select tag.name as name\n" +
+                    "            from event_tag\n" +
+                    "            inner join tag on tag.id = event_tag.tag_id\n" +
+                    "            where event_tag.event_id = queue_event.event_id\n" +
+                    "            order by tag.name\n" +
+                    "        )\n" +
+                    "    )\n" +
+                    "from\n" +
+                    "    queue_event\n" +
+                    "inner join\n" +
+                    "    event\n" +
+                    "on\n" +
+                    "    queue_event.event_id = event.id\n" +
+                    "where\n" +
+                    "    queue_event.queue_id = ?\n" +
+                    "    and queue_event.event_id > ?\n" +
+                    "order by\n" +
+                    "    queue_event.event_id asc\n" +
+                    "limit ?",
+                    new String[] { Integer.toString(queueId), Integer.toString(after), Integer.toString(PAGE_SIZE) }
+                );
+
+                if (cursor == null)
+                    break;
+
+                int count = 0;
+                try {
+                    while (cursor.moveToNext()) {
+                        after = cursor.getInt(0);
+                        sink.writeEvent(
+                            after,
+                            cursor.isNull(1) ? null : cursor.getLong(1),
+                            cursor.getString(2),
+                            cursor.isNull(3) ? null : cursor.getString(3)
+                        );
+                        count += 1;
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                exported += count;
+                if (progress != null)
+                    progress.onProgress(exported, total);
+
+                if (count < PAGE_SIZE)
+                    break;
+            }
+        }
+
+        return exported;
+    }
+
+    private static class CsvSink implements Sink {
+        private final Writer out;
+        private int queueId;
+        private String queueName;
+
+        // Current queue had no events written yet
+        private boolean queueEmpty;
+
+        CsvSink(OutputStream out) throws IOException {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE);
+            this.out.write("queue_id,queue_name,event_id,timestamp,datetime,comment,tags\r\n");
+        }
+
+        @Override
+        public void writeQueue(int id, String name) throws IOException {
+            this.writeEmptyQueue();
+
+            this.queueId = id;
+            this.queueName = name;
+            this.queueEmpty = true;
+        }
+
+        @Override
+        public void writeEvent(int id, Long timestamp, String comment, String tags) throws IOException {
+            this.queueEmpty = false;
+
+            this.out.write(Integer.toString(this.queueId));
+            this.out.write(',');
+            this.writeField(this.queueName);
+            this.out.write(',');
+            this.out.write(Integer.toString(id));
+            this.out.write(',');
+            if (timestamp != null) {
+                this.out.write(Long.toString(timestamp));
+                this.out.write(',');
+                this.out.write(TIMESTAMP_FORMATTER.format(timestamp));
+            } else {
+                this.out.write(',');
+            }
+            this.out.write(',');
+            this.writeField(comment);
+            this.out.write(',');
+            this.writeField(tags == null ? null : joinTags(tags));
+            this.out.write("\r\n");
+        }
+
+        /* Replace separators of tag names aggregated by query, escaping separator and escape within names */
+        private static String joinTags(String tags) {
+            StringBuilder sb = new StringBuilder(tags.length());
+            for (int index = 0; index < tags.length(); ++index) {
+                char c = tags.charAt(index);
+                if (c == TAG_SEPARATOR) {
+                    sb.append(CSV_TAG_SEPARATOR);
+                } else {
+                    if (c == CSV_TAG_SEPARATOR || c == CSV_TAG_ESCAPE)
+                        sb.append(CSV_TAG_ESCAPE);
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+
+        /* Quote field as in RFC 4180 when it has separators, quotes or line breaks */
+        private void writeField(String value) throws IOException {
+            if (value == null)
+                return;
+
+            boolean quote = false;
+            for (int index = 0; index < value.length() && !quote; ++index) {
+                char c = value.charAt(index);
+                quote = (c == ',' || c == '"' || c == '\n' || c == '\r');
+            }
+
+            if (!quote) {
+                this.out.write(value);
+                return;
+            }
+
+            this.out.write('"');
+            this.out.write(value.replace("\"", "\"\""));
+            this.out.write('"');
+        }
+
+        /* Row with only queue_name declares queue without events on import */
+        private void writeEmptyQueue() throws IOException {
+            if (!this.queueEmpty)
+                return;
+
+            this.out.write(',');
+            this.writeField(this.queueName);
+            this.out.write(",,,,,\r\n");
+            this.queueEmpty = false;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            this.writeEmptyQueue();
+            this.out.flush();
+        }
+    }
+
+    private static class BinarySink implements Sink {
+        private final DataOutputStream out;
+        private long previousTimestamp;
+
+        BinarySink(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            this.out.writeInt(BINARY_MAGIC);
+        }
+
+        @Override
+        public void writeQueue(int id, String name) throws IOException {
+            this.out.writeByte(BINARY_RECORD_QUEUE);
+            this.writeVarint(id);
+            this.writeString(name);
+            this.previousTimestamp = 0;
+        }
+
+        @Override
+        public void writeEvent(int id, Long timestamp, String comment, String tags) throws IOException {
+            if (timestamp == null) {
+                this.out.writeByte(BINARY_RECORD_EVENT_NO_TIMESTAMP);
+                this.writeVarint(id);
+            } else {
+                this.out.writeByte(BINARY_RECORD_EVENT);
+                this.writeVarint(id);
+
+                long delta = timestamp - this.previousTimestamp;
+                this.writeVarint((delta << 1) ^ (delta >> 63));
+                this.previousTimestamp = timestamp;
+            }
+
+            this.writeString(comment);
+
+            if (tags == null) {
+                this.writeVarint(0);
+                return;
+            }
+
+            int count = 1;
+            for (int index = 0; index < tags.length(); ++index) {
+                if (tags.charAt(index) == TAG_SEPARATOR)
+                    count += 1;
+            }
+            this.writeVarint(count);
+
+            int start = 0;
+            for (int index = 0; index <= tags.length(); ++index) {
+                if (index == tags.length() || tags.charAt(index) == TAG_SEPARATOR) {
+                    this.writeString(tags.substring(start, index));
+                    start = index + 1;
+                }
+            }
+        }
+
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                this.out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            this.out.writeByte((int) value);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                this.writeVarint(0);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(UTF_8);
+            this.writeVarint(bytes.length + 1);
+            this.out.write(bytes);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            this.out.writeByte(BINARY_RECORD_END);
+            this.out.flush();
+        }
+    }
+}
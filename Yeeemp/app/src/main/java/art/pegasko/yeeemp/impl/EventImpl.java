@@ -25,7 +25,6 @@
 
 package art.pegasko.yeeemp.impl;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
@@ -33,19 +32,140 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import art.pegasko.yeeemp.base.Event;
 import art.pegasko.yeeemp.base.Tag;
 
 public class EventImpl implements Event {
     public static final String TAG = EventImpl.class.getSimpleName();
 
+    /* Max number of event handles kept by identity map */
+    private static final int CACHE_CAPACITY = 2048;
+
+    private static final IdentityMap<EventImpl> cache = new IdentityMap<EventImpl>(CACHE_CAPACITY);
+
+    // Queries of tags, both read event_tag__event_id_tag_id
+    static final String TAGS_QUERY = (
+        "select\n" +
+        "    event_tag.tag_id,\n" +
+        "    tag.name\n" +
+        "from\n" +
+        "    event_tag\n" +
+        "left join\n" +
+        "    tag\n" +
+        "on\n" +
+        "    event_tag.tag_id = tag.id\n" +
+        "where\n" +
+        "    event_tag.event_id = ?\n" +
+        "order by\n" +
+        "    event_tag.tag_id desc"
+    );
+    static final String HAS_TAG_QUERY = "select 1 from event_tag where event_id = ? and tag_id = ?";
+
+    /**
+     * Cached row values, replaced as a whole so readers never see a mix of old and new values
+     */
+    private static final class State {
+        static final State EMPTY = new State(false, 0, null, null);
+
+        // Timestamp and comment are valid only when `hydrated` is set
+        final boolean hydrated;
+        final long timestamp;
+        final String comment;
+
+        // Null when tags are not cached
+        final Tag[] tags;
+
+        State(boolean hydrated, long timestamp, String comment, Tag[] tags) {
+            this.hydrated = hydrated;
+            this.timestamp = timestamp;
+            this.comment = comment;
+            this.tags = tags;
+        }
+
+        State withTimestamp(long timestamp) {
+            return new State(this.hydrated, timestamp, this.comment, this.tags);
+        }
+
+        State withComment(String comment) {
+            return new State(this.hydrated, this.timestamp, comment, this.tags);
+        }
+
+        State withTags(Tag[] tags) {
+            return new State(this.hydrated, this.timestamp, this.comment, tags);
+        }
+    }
+
     private final SQLiteDatabase db;
+    private final Statements statements;
     private final int id;
-    private Tag[] cachedTags;
+    private final AtomicReference<State> state;
 
     protected EventImpl(SQLiteDatabase db, int id) {
         this.db = db;
+        this.statements = Statements.of(db);
+        this.id = id;
+        this.state = new AtomicReference<State>(State.EMPTY);
+    }
+
+    /**
+     * Construct event with row values already known from query.
+     *
+     * Hydrated event does not touch database for reading timestamp, comment and tags.
+     */
+    protected EventImpl(SQLiteDatabase db, int id, long timestamp, String comment, Tag[] tags) {
+        this.db = db;
+        this.statements = Statements.of(db);
         this.id = id;
+        this.state = new AtomicReference<State>(new State(true, timestamp, comment, tags));
+    }
+
+    /**
+     * Get shared handle for event id, creating it if missing
+     */
+    static EventImpl obtain(SQLiteDatabase db, int id) {
+        EventImpl event = cache.get(id);
+        if (event == null || event.db != db) {
+            event = new EventImpl(db, id);
+            cache.put(id, event);
+        }
+
+        return event;
+    }
+
+    /**
+     * Get shared handle for event id and refresh it with row values already known from query
+     */
+    static EventImpl obtain(SQLiteDatabase db, int id, long timestamp, String comment, Tag[] tags) {
+        EventImpl event = cache.get(id);
+        if (event == null || event.db != db) {
+            event = new EventImpl(db, id, timestamp, comment, tags);
+            cache.put(id, event);
+        } else {
+            event.state.set(new State(true, timestamp, comment, tags));
+        }
+
+        return event;
+    }
+
+    /**
+     * Drop shared handle for event id after its row was changed or deleted by maker.
+     *
+     * Handle still referenced elsewhere falls back to reading from database.
+     */
+    static void invalidate(int id) {
+        EventImpl event = cache.remove(id);
+        if (event != null) {
+            event.state.set(State.EMPTY);
+        }
+    }
+
+    /**
+     * Drop all shared handles, called when events are deleted in bulk or database is replaced
+     */
+    static void clearCache() {
+        cache.clear();
     }
 
     @Override
@@ -55,65 +175,37 @@ public class EventImpl implements Event {
 
     @Override
     public long getTimestamp() {
-        synchronized (this.db) {
-            Cursor cursor = db.query(
-                "event",
-                new String[] { "timestamp" },
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) },
-                null,
-                null,
-                null
-            );
-
-            return Utils.getLongAndClose(cursor, 0);
-        }
+        State state = this.state.get();
+        if (state.hydrated)
+            return state.timestamp;
+
+        return this.statements.queryLong("select timestamp from event where id = ?", 0, this.getId());
     }
 
     @Override
     public void setTimestamp(long timestamp) {
         synchronized (this.db) {
-            ContentValues cv = new ContentValues();
-            cv.put("timestamp", timestamp);
-
-            db.update(
-                "event",
-                cv,
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) }
-            );
+            this.statements.update("update event set timestamp = ? where id = ?", timestamp, this.getId());
+
+            this.state.set(this.state.get().withTimestamp(timestamp));
         }
     }
 
     @Override
     public String getComment() {
-        synchronized (this.db) {
-            Cursor cursor = db.query(
-                "event",
-                new String[] { "comment" },
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) },
-                null,
-                null,
-                null
-            );
-
-            return Utils.getStringAndClose(cursor, null);
-        }
+        State state = this.state.get();
+        if (state.hydrated)
+            return state.comment;
+
+        return this.statements.queryString("select comment from event where id = ?", null, this.getId());
     }
 
     @Override
     public void setComment(String comment) {
         synchronized (this.db) {
-            ContentValues cv = new ContentValues();
-            cv.put("comment", comment);
-
-            db.update(
-                "event",
-                cv,
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) }
-            );
+            this.statements.update("update event set comment = ? where id = ?", comment, this.getId());
+
+            this.state.set(this.state.get().withComment(comment));
         }
     }
 
@@ -122,36 +214,26 @@ public class EventImpl implements Event {
      */
     protected boolean hasTag(Tag tag) {
         synchronized (this.db) {
-            Cursor cursor = db.query(
-                "event_tag",
-                new String[] { "1" },
-                "event_id = ? AND tag_id = ?",
-                new String[] {
-                    Integer.toString(this.getId()), Integer.toString(tag.getId())
-                },
-                null,
-                null,
-                null
-            );
-
-            return Utils.findResultAndClose(cursor);
+            return this.statements.queryLong(
+                HAS_TAG_QUERY,
+                0,
+                this.getId(),
+                tag.getId()
+            ) != 0;
         }
     }
 
     @Override
     public void addTag(Tag tag) {
         synchronized (this.db) {
-            this.cachedTags = null;
+            this.state.set(this.state.get().withTags(null));
 
             if (tag == null) return;
 
             if (this.hasTag(tag)) return;
 
             try {
-                ContentValues cv = new ContentValues();
-                cv.put("event_id", this.getId());
-                cv.put("tag_id", tag.getId());
-                db.insertOrThrow("event_tag", null, cv);
+                this.statements.insert("insert into event_tag (event_id, tag_id) values (?, ?)", this.getId(), tag.getId());
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
             }
@@ -161,16 +243,18 @@ public class EventImpl implements Event {
     @Override
     public void removeTag(Tag tag) {
         synchronized (this.db) {
-            this.cachedTags = null;
+            this.state.set(this.state.get().withTags(null));
 
             if (tag == null) return;
 
             if (!this.hasTag(tag)) return;
 
             try {
-                db.delete("event_tag", "event_id = ? AND tag_id = ?", new String[] {
-                    Integer.toString(this.getId()), Integer.toString(tag.getId())
-                });
+                this.statements.delete(
+                    "delete from event_tag where event_id = ? and tag_id = ?",
+                    this.getId(),
+                    tag.getId()
+                );
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
             }
@@ -180,10 +264,10 @@ public class EventImpl implements Event {
     @Override
     public void removeTags() {
         synchronized (this.db) {
-            this.cachedTags = null;
+            this.state.set(this.state.get().withTags(null));
 
             try {
-                db.delete("event_tag", "event_id = ?", new String[] { Integer.toString(this.getId()) });
+                this.statements.delete("delete from event_tag where event_id = ?", this.getId());
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
             }
@@ -192,34 +276,28 @@ public class EventImpl implements Event {
 
     @Override
     public Tag[] getTags() {
-        synchronized (this.db) {
-            if (this.cachedTags != null)
-                return this.cachedTags;
-
-            Cursor cursor = db.query(
-                "event_tag",
-                new String[] { "tag_id" },
-                "event_id = ?",
-                new String[] { Integer.toString(this.getId()) },
-                null,
-                null,
-                "tag_id desc"
-            );
-
-            if (cursor == null) {
-                return new Tag[0];
-            }
+        State state = this.state.get();
+        if (state.tags != null)
+            return state.tags;
 
-            Tag[] tags = new Tag[cursor.getCount()];
+        Cursor cursor = db.rawQuery(TAGS_QUERY, new String[] { Integer.toString(this.getId()) });
 
-            int index = 0;
-            while (cursor.moveToNext()) {
-                tags[index++] = new TagImpl(this.db, cursor.getInt(0));
-            }
-            cursor.close();
+        if (cursor == null) {
+            return new Tag[0];
+        }
 
-            return this.cachedTags = tags;
+        Tag[] tags = new Tag[cursor.getCount()];
+
+        int index = 0;
+        while (cursor.moveToNext()) {
+            tags[index++] = TagImpl.obtain(this.db, cursor.getInt(0), cursor.getString(1));
         }
+        cursor.close();
+
+        // Skip caching if state was changed while reading, tags may be stale already
+        this.state.compareAndSet(state, state.withTags(tags));
+
+        return tags;
     }
 
     @NonNull
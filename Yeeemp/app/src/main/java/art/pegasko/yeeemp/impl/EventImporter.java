@@ -0,0 +1,655 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+
+import art.pegasko.yeeemp.base.Wrapper;
+
+/**
+ * Streaming bulk import of events, optionally gzipped.
+ *
+ * CSV must have header row with columns queue_name and timestamp, columns comment and tags are optional and other
+ * columns are ignored, so files written by {@link EventExporter} can be imported back. Tags are separated by `;`,
+ * backslash escapes following character, so `\;` and `\\` stand for `;` and `\` within tag name. Empty timestamp
+ * means event without timestamp. Record with every field except queue_name empty declares queue without adding
+ * event, exporter writes such record for queue without events.
+ *
+ * JSON is array of objects with fields queue_name, timestamp, comment and tags, where tags is array of names.
+ * `"timestamp": null` means event without timestamp, object without timestamp key declares queue without adding
+ * event.
+ *
+ * Format is detected from first character. Queues are matched by name and tags within queue by normalized name
+ * through in-memory maps loaded once per queue, missing ones are created. Events of each batch get ids from
+ * sqlite_sequence and are inserted with multi-row prepared statements in transaction of {@link #BATCH_SIZE}
+ * events, batches inserted before failure stay imported.
+ *
+ * Queues receiving events are marked stale (see schema version 7 in {@link Migrations}), so insert triggers skip
+ * their queue_stat and queue_tag, and queue_event timestamp is inserted directly. Stats of stale queues are rebuilt
+ * once import ends, even if it failed, and on next open if app was killed meanwhile.
+ */
+public class EventImporter {
+    public static final String TAG = EventImporter.class.getSimpleName();
+
+    /* Events inserted per transaction */
+    static final int BATCH_SIZE = 1000;
+
+    /* Buffer between decoder and parser */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char TAG_SEPARATOR = ';';
+    private static final char TAG_ESCAPE = '\\';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Rows per multi-row insert, 3 columns per row stay below default limit of 999 bind args */
+    private static final int ROWS_PER_INSERT = 100;
+
+    // Statements of import. Multi-row inserts are completed with valuesSQL()
+    private static final String INSERT_QUEUE = "insert into queue (name) values (?)";
+    private static final String MARK_STALE = "insert or ignore into stale_queue (queue_id) values (?)";
+    private static final String INSERT_TAG = "insert into tag (queue_id, name) values (?, ?)";
+    private static final String NEXT_EVENT_ID = (
+        "select max(" +
+        "coalesce((select seq from sqlite_sequence where name = 'event'), 0), " +
+        "coalesce((select max(id) from event), 0)" +
+        ") + 1"
+    );
+    private static final String INSERT_EVENTS = "insert into event (id, timestamp, comment) values ";
+    private static final String INSERT_QUEUE_EVENTS = "insert into queue_event (queue_id, event_id, timestamp) values ";
+    private static final String INSERT_EVENT_TAGS = "insert into event_tag (event_id, tag_id) values ";
+
+    /**
+     * Result of import
+     */
+    public static class Report {
+        public long queues;
+        public long tags;
+        public long events;
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Report{queues=");
+            sb.append(this.queues);
+            sb.append(",tags=");
+            sb.append(this.tags);
+            sb.append(",events=");
+            sb.append(this.events);
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Parsed event waiting for insert
+     */
+    private static class Row {
+        final String queueName;
+        final Long timestamp;
+        final String comment;
+        final ArrayList<String> tags;
+
+        // Row only declares queue, no event is inserted
+        final boolean queueOnly;
+
+        Row(String queueName, Long timestamp, String comment, ArrayList<String> tags) {
+            this.queueName = queueName;
+            this.timestamp = timestamp;
+            this.comment = comment;
+            this.tags = tags;
+            this.queueOnly = false;
+        }
+
+        Row(String queueName) {
+            this.queueName = queueName;
+            this.timestamp = null;
+            this.comment = null;
+            this.tags = null;
+            this.queueOnly = true;
+        }
+    }
+
+    private final SQLiteDatabase db;
+    private final Statements statements;
+    private final Report report = new Report();
+
+    private final ArrayList<Row> batch = new ArrayList<Row>(BATCH_SIZE);
+
+    // Rows parsed so far
+    private long rows;
+
+    // Queue name to id, loaded on start
+    private final HashMap<String, Integer> queueIds = new HashMap<String, Integer>();
+
+    // Queue id to map of normalized tag name to id, loaded on first event of queue
+    private final HashMap<Integer, HashMap<String, Integer>> tagIds = new HashMap<Integer, HashMap<String, Integer>>();
+
+    // Queues marked stale by this import
+    private final HashSet<Integer> staleQueues = new HashSet<Integer>();
+
+    // Values of multi-row inserts of current batch
+    private final ArrayList<Object> eventValues = new ArrayList<Object>();
+    private final ArrayList<Object> queueEventValues = new ArrayList<Object>();
+    private final ArrayList<Object> eventTagValues = new ArrayList<Object>();
+
+    private EventImporter(SQLiteDatabase db) {
+        this.db = db;
+        this.statements = Statements.of(db);
+    }
+
+    /**
+     * Import events into current database, blocking, must not be called on main thread
+     */
+    public static Report run(Context context, Uri uri) throws IOException {
+        InputStream fis = context.getContentResolver().openInputStream(uri);
+        if (fis == null)
+            throw new FileNotFoundException("Failed to open " + uri);
+
+        try {
+            return run(((DBWrapper) Wrapper.instance()).db, fis);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Import events from stream into `db`, blocking. Stream is not closed.
+     */
+    static Report run(SQLiteDatabase db, InputStream stream) throws IOException {
+        InputStream in = new BufferedInputStream(stream, BUFFER_SIZE);
+
+        // Gzip magic
+        in.mark(2);
+        boolean gzip = (in.read() == 0x1f && in.read() == 0x8b);
+        in.reset();
+        if (gzip)
+            in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+
+        Reader reader = new BufferedReader(new InputStreamReader(in, UTF_8), BUFFER_SIZE);
+
+        EventImporter importer = new EventImporter(db);
+        importer.loadQueues();
+
+        try {
+            if (peekSignificant(reader) == '[') {
+                importer.readJson(reader);
+            } else {
+                importer.readCsv(reader);
+            }
+            importer.flush();
+        } finally {
+            rebuildStaleQueues(importer.db);
+        }
+
+        Log.i(TAG, "Import finished: " + importer.report);
+        return importer.report;
+    }
+
+    /**
+     * @return first character that is not whitespace or byte order mark, without consuming it, or -1 on end
+     */
+    private static int peekSignificant(Reader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c == -1 || !(Character.isWhitespace(c) || c == '\uFEFF')) {
+                reader.reset();
+                return c;
+            }
+        }
+    }
+
+    private void loadQueues() {
+        Cursor cursor = this.db.rawQuery("select id, name from queue order by id desc", null);
+        if (cursor == null)
+            return;
+
+        // Descending, so first queue wins for duplicate names
+        while (cursor.moveToNext()) {
+            this.queueIds.put(cursor.isNull(1) ? "" : cursor.getString(1), cursor.getInt(0));
+        }
+        cursor.close();
+    }
+
+    private void readJson(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        json.beginArray();
+        while (json.hasNext()) {
+            String queueName = null;
+            boolean hasTimestamp = false;
+            Long timestamp = null;
+            String comment = null;
+            ArrayList<String> tags = new ArrayList<String>();
+
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                hasTimestamp |= name.equals("timestamp");
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                } else if (name.equals("queue_name")) {
+                    queueName = json.nextString();
+                } else if (name.equals("timestamp")) {
+                    timestamp = json.nextLong();
+                } else if (name.equals("comment")) {
+                    comment = json.nextString();
+                } else if (name.equals("tags")) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        tags.add(json.nextString());
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+
+            if (queueName == null)
+                throw new IOException("Object " + (this.rows + 1) + " has no queue_name");
+
+            this.add(hasTimestamp ? new Row(queueName, timestamp, comment, tags) : new Row(queueName));
+        }
+        json.endArray();
+    }
+
+    private void readCsv(Reader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+
+        ArrayList<String> header = csv.readRecord();
+        if (header == null)
+            return;
+
+        int queueColumn = header.indexOf("queue_name");
+        int timestampColumn = header.indexOf("timestamp");
+        int commentColumn = header.indexOf("comment");
+        int tagsColumn = header.indexOf("tags");
+        if (queueColumn == -1 || timestampColumn == -1)
+            throw new IOException("CSV header must have queue_name and timestamp columns");
+
+        ArrayList<String> record;
+        while ((record = csv.readRecord()) != null) {
+            // Blank line
+            if (record.size() == 1 && record.get(0).isEmpty())
+                continue;
+
+            String queueName = getColumn(record, queueColumn);
+            if (queueName == null)
+                queueName = "";
+
+            // Queue declaration
+            boolean queueOnly = true;
+            for (int column = 0; column < record.size() && queueOnly; ++column) {
+                queueOnly = (column == queueColumn || record.get(column).isEmpty());
+            }
+            if (queueOnly) {
+                this.add(new Row(queueName));
+                continue;
+            }
+
+            Long timestamp = null;
+            String timestampValue = getColumn(record, timestampColumn);
+            if (timestampValue != null && !timestampValue.trim().isEmpty()) {
+                try {
+                    timestamp = Long.parseLong(timestampValue.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid timestamp on CSV record " + csv.getRecordNumber());
+                }
+            }
+
+            String comment = getColumn(record, commentColumn);
+            if (comment != null && comment.isEmpty())
+                comment = null;
+
+            ArrayList<String> tags = new ArrayList<String>();
+            String tagsValue = getColumn(record, tagsColumn);
+            if (tagsValue != null) {
+                StringBuilder tag = new StringBuilder();
+                for (int index = 0; index < tagsValue.length(); ++index) {
+                    char c = tagsValue.charAt(index);
+                    if (c == TAG_ESCAPE && index + 1 < tagsValue.length()) {
+                        tag.append(tagsValue.charAt(++index));
+                    } else if (c == TAG_SEPARATOR) {
+                        tags.add(tag.toString());
+                        tag.setLength(0);
+                    } else {
+                        tag.append(c);
+                    }
+                }
+                tags.add(tag.toString());
+            }
+
+            this.add(new Row(queueName, timestamp, comment, tags));
+        }
+    }
+
+    private static String getColumn(ArrayList<String> record, int column) {
+        if (column == -1 || column >= record.size())
+            return null;
+
+        return record.get(column);
+    }
+
+    private void add(Row row) {
+        this.rows += 1;
+        this.batch.add(row);
+        if (this.batch.size() >= BATCH_SIZE)
+            this.flush();
+    }
+
+    /**
+     * Insert pending events in one transaction
+     */
+    private void flush() {
+        if (this.batch.isEmpty())
+            return;
+
+        long events;
+        synchronized (this.db) {
+            this.db.beginTransaction();
+            try {
+                // Transaction holds write lock, so ids can not be taken by other insert meanwhile
+                long firstEventId = this.statements.queryLong(NEXT_EVENT_ID, 1);
+                long eventId = firstEventId;
+                for (Row row : this.batch) {
+                    if (row.queueOnly) {
+                        this.resolveQueue(row.queueName);
+                    } else {
+                        this.prepare(row, eventId++);
+                    }
+                }
+                events = eventId - firstEventId;
+
+                // Events first, other rows reference them
+                this.insertValues(INSERT_EVENTS, 3, this.eventValues);
+                this.insertValues(INSERT_QUEUE_EVENTS, 3, this.queueEventValues);
+                this.insertValues(INSERT_EVENT_TAGS, 2, this.eventTagValues);
+
+                this.db.setTransactionSuccessful();
+            } finally {
+                this.eventValues.clear();
+                this.queueEventValues.clear();
+                this.eventTagValues.clear();
+                this.db.endTransaction();
+            }
+        }
+
+        this.report.events += events;
+        this.batch.clear();
+    }
+
+    /**
+     * Resolve queue and tags of row, creating missing ones, and add row to pending multi-row inserts
+     *
+     * !synchronized
+     */
+    private void prepare(Row row, long eventId) {
+        int queueId = this.resolveQueue(row.queueName);
+
+        // Marked in transaction of first event of queue, before triggers could count it
+        if (this.staleQueues.add(queueId))
+            this.statements.insert(MARK_STALE, queueId);
+
+        this.eventValues.add(eventId);
+        this.eventValues.add(row.timestamp);
+        this.eventValues.add(row.comment);
+
+        // queue_event stores missing timestamp as 0, see schema version 8 in Migrations
+        this.queueEventValues.add(queueId);
+        this.queueEventValues.add(eventId);
+        this.queueEventValues.add(row.timestamp == null ? 0L : row.timestamp);
+
+        HashMap<String, Integer> tags = this.getTagIds(queueId);
+        for (int index = 0; index < row.tags.size(); ++index) {
+            String name = row.tags.get(index).trim().toLowerCase();
+            if (name.isEmpty())
+                continue;
+
+            // Same tag repeated in event
+            boolean repeated = false;
+            for (int previous = 0; previous < index && !repeated; ++previous) {
+                repeated = name.equals(row.tags.get(previous).trim().toLowerCase());
+            }
+            if (repeated)
+                continue;
+
+            Integer tagId = tags.get(name);
+            if (tagId == null) {
+                tagId = (int) this.statements.insert(INSERT_TAG, queueId, name);
+                tags.put(name, tagId);
+                this.report.tags += 1;
+            }
+
+            this.eventTagValues.add(eventId);
+            this.eventTagValues.add(tagId);
+        }
+    }
+
+    /**
+     * Insert values by {@link #ROWS_PER_INSERT} rows, last statement takes the rest
+     *
+     * !synchronized
+     */
+    private void insertValues(String insert, int columns, ArrayList<Object> values) {
+        int rows = values.size() / columns;
+
+        int row = 0;
+        for (; row + ROWS_PER_INSERT <= rows; row += ROWS_PER_INSERT) {
+            this.statements.insert(
+                valuesSQL(insert, columns, ROWS_PER_INSERT),
+                values.subList(row * columns, (row + ROWS_PER_INSERT) * columns).toArray()
+            );
+        }
+
+        // Not kept compiled, size of the rest differs between batches
+        if (row < rows) {
+            this.db.execSQL(
+                valuesSQL(insert, columns, rows - row),
+                values.subList(row * columns, values.size()).toArray()
+            );
+        }
+    }
+
+    /**
+     * Complete multi-row insert with placeholders for given number of rows
+     */
+    private static String valuesSQL(String insert, int columns, int rows) {
+        StringBuilder sb = new StringBuilder(insert);
+        for (int row = 0; row < rows; ++row) {
+            sb.append(row == 0 ? "(" : ", (");
+            for (int column = 0; column < columns; ++column) {
+                sb.append(column == 0 ? "?" : ", ?");
+            }
+            sb.append(")");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Rebuild stats of queues marked stale and unmark them, in one transaction.
+     *
+     * Called when import ends and on open, for queues left stale by import that was killed.
+     */
+    static void rebuildStaleQueues(SQLiteDatabase db) {
+        synchronized (db) {
+            ArrayList<Long> queueIds = new ArrayList<Long>();
+            Cursor cursor = db.rawQuery("select queue_id from stale_queue", null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    queueIds.add(cursor.getLong(0));
+                }
+                cursor.close();
+            }
+
+            if (queueIds.isEmpty())
+                return;
+
+            db.beginTransaction();
+            try {
+                for (Long queueId : queueIds) {
+                    for (String sql : Migrations.REBUILD_QUEUE_STATS) {
+                        db.execSQL(sql, new Object[] { queueId });
+                    }
+                    db.execSQL("delete from stale_queue where queue_id = ?", new Object[] { queueId });
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            Log.i(TAG, "Rebuilt stats of " + queueIds.size() + " queues");
+        }
+    }
+
+    /* !synchronized */
+    private int resolveQueue(String name) {
+        name = name.trim();
+
+        Integer id = this.queueIds.get(name);
+        if (id == null) {
+            id = (int) this.statements.insert(INSERT_QUEUE, name);
+            this.queueIds.put(name, id);
+            this.report.queues += 1;
+        }
+
+        return id;
+    }
+
+    /* !synchronized */
+    private HashMap<String, Integer> getTagIds(int queueId) {
+        HashMap<String, Integer> tags = this.tagIds.get(queueId);
+        if (tags != null)
+            return tags;
+
+        tags = new HashMap<String, Integer>();
+        Cursor cursor = this.db.rawQuery(
+            "select id, name from tag where queue_id = ?",
+            new String[] { Integer.toString(queueId) }
+        );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(1))
+                    tags.put(cursor.getString(1), cursor.getInt(0));
+            }
+            cursor.close();
+        }
+
+        this.tagIds.put(queueId, tags);
+        return tags;
+    }
+
+    /**
+     * RFC 4180 record reader, quoted fields may contain separators, quotes and line breaks
+     */
+    private static class CsvReader {
+        private final Reader reader;
+        private final StringBuilder field = new StringBuilder();
+        private long recordNumber;
+
+        CsvReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        long getRecordNumber() {
+            return this.recordNumber;
+        }
+
+        /**
+         * @return fields of next record or null on end of input
+         */
+        ArrayList<String> readRecord() throws IOException {
+            int c = this.reader.read();
+            if (c == -1)
+                return null;
+
+            this.recordNumber += 1;
+
+            ArrayList<String> record = new ArrayList<String>();
+            this.field.setLength(0);
+            boolean quoted = false;
+
+            while (true) {
+                if (quoted) {
+                    if (c == -1)
+                        throw new IOException("Unterminated quote in CSV record " + this.recordNumber);
+
+                    if (c == '"') {
+                        c = this.reader.read();
+                        if (c != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                    }
+
+                    this.field.append((char) c);
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    record.add(this.field.toString());
+                    this.field.setLength(0);
+                } else if (c == '\r' || c == '\n' || c == -1) {
+                    if (c == '\r') {
+                        this.reader.mark(1);
+                        if (this.reader.read() != '\n')
+                            this.reader.reset();
+                    }
+
+                    record.add(this.field.toString());
+                    return record;
+                } else {
+                    this.field.append((char) c);
+                }
+
+                c = this.reader.read();
+            }
+        }
+    }
+}
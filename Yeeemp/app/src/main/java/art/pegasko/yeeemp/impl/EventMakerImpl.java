@@ -25,8 +25,6 @@
 
 package art.pegasko.yeeemp.impl;
 
-import android.content.ContentValues;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.Log;
@@ -39,29 +37,33 @@ public class EventMakerImpl implements EventMaker {
     public static final String TAG = EventMakerImpl.class.getSimpleName();
 
     private SQLiteDatabase db;
+    private Statements statements;
 
     public EventMakerImpl(SQLiteDatabase db) {
         this.db = db;
+        this.statements = Statements.of(db);
     }
 
     @Override
     public Event getById(int id) {
+        try {
+            if (this.statements.queryLong("select 1 from event where id = ?", 0, id) != 0) {
+                return EventImpl.obtain(this.db, id);
+            }
+
+        } catch (SQLiteException e) {
+            Log.wtf(TAG, e);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Event create() {
         synchronized (this.db) {
             try {
-                Cursor cursor = db.query(
-                    "event",
-                    new String[] { "1" },
-                    "id = ?",
-                    new String[] { Integer.toString(id) },
-                    null,
-                    null,
-                    null
-                );
-
-                if (Utils.findResultAndClose(cursor)) {
-                    return new EventImpl(this.db, id);
-                }
-
+                long rowId = this.statements.insert("insert into event (id) values (null)");
+                return EventImpl.obtain(this.db, (int) rowId);
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
             }
@@ -71,36 +73,74 @@ public class EventMakerImpl implements EventMaker {
     }
 
     @Override
-    public Event create() {
+    public void delete(Event event) {
         synchronized (this.db) {
             try {
-                ContentValues cv = new ContentValues();
-                cv.put("id", (Integer) null);
-                long rowId = db.insertOrThrow("event", null, cv);
-                return new EventImpl(this.db, (int) rowId);
+                // Links to queues and tags are deleted by cascade
+                this.statements.delete("delete from event where id = ?", event.getId());
+
+                EventImpl.invalidate(event.getId());
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
             }
-
-            return null;
         }
     }
 
+    /**
+     * Create or update event with all its fields and tags in single transaction.
+     *
+     * @param event existing event to update or null to create new event in queue
+     * @return saved event or null on failure
+     */
     @Override
-    public void delete(Event event) {
+    public Event saveEvent(Queue queue, Event event, long timestamp, String comment, String[] tagNames) {
+        int eventId;
         synchronized (this.db) {
+            db.beginTransaction();
             try {
-                // Delete queue <-> event
-                db.delete("queue_event", "event_id = ?", new String[] { Integer.toString(event.getId()) });
+                if (event == null) {
+                    eventId = (int) this.statements.insert(
+                        "insert into event (timestamp, comment) values (?, ?)",
+                        timestamp,
+                        comment
+                    );
+                } else {
+                    eventId = event.getId();
+                    this.statements.update(
+                        "update event set timestamp = ?, comment = ? where id = ?",
+                        timestamp,
+                        comment,
+                        eventId
+                    );
+                }
 
-                // Delete event <-> tag
-                db.delete("event_tag", "event_id = ?", new String[] { Integer.toString(event.getId()) });
+                // Replace tags
+                int[] tagIds = TagMakerImpl.resolveInQueue(db, queue.getId(), tagNames);
+                this.statements.delete("delete from event_tag where event_id = ?", eventId);
+                for (int tagId : tagIds) {
+                    this.statements.insert("insert into event_tag (event_id, tag_id) values (?, ?)", eventId, tagId);
+                }
 
-                // Delete event
-                db.delete("event", "id = ?", new String[] { Integer.toString(event.getId()) });
+                // Link new event
+                if (event == null) {
+                    this.statements.insert(
+                        "insert into queue_event (queue_id, event_id) values (?, ?)",
+                        queue.getId(),
+                        eventId
+                    );
+                }
+
+                db.setTransactionSuccessful();
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
+                return null;
+            } finally {
+                db.endTransaction();
             }
         }
+
+        // Handle may hold previous values and tags, reload it only from committed state
+        EventImpl.invalidate(eventId);
+        return EventImpl.obtain(this.db, eventId);
     }
 }
@@ -0,0 +1,67 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded map of live handles by row id with least recently used eviction.
+ *
+ * Lets repeated lookups of the same row share one handle together with its cached values instead of creating
+ * short-lived handles and querying database again. Thread safe.
+ */
+class IdentityMap<V> {
+    private final LinkedHashMap<Integer, V> map;
+
+    IdentityMap(final int capacity) {
+        this.map = new LinkedHashMap<Integer, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+                return this.size() > capacity;
+            }
+        };
+    }
+
+    public synchronized V get(int id) {
+        return this.map.get(id);
+    }
+
+    public synchronized void put(int id, V value) {
+        this.map.put(id, value);
+    }
+
+    /**
+     * @return removed handle or null
+     */
+    public synchronized V remove(int id) {
+        return this.map.remove(id);
+    }
+
+    public synchronized void clear() {
+        this.map.clear();
+    }
+}
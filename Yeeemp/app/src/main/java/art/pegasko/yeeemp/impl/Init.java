@@ -30,12 +30,21 @@ import android.content.Context;
 import art.pegasko.yeeemp.base.Wrapper;
 
 public class Init {
+    /**
+     * Open database unless already opened, safe to call from activities and job services concurrently.
+     *
+     * Runs under Wrapper monitor, same as database swap, so database is opened only once.
+     */
     public static void initDB(Context context) {
-        if (Wrapper.instance() == null)
-            Wrapper.setInstance(new DBWrapper(context));
+        synchronized (Wrapper.class) {
+            if (Wrapper.instance() == null)
+                Wrapper.setInstance(new DBWrapper(context));
+        }
     }
 
     public static void reinitDB(Context context) {
-        Wrapper.setInstance(new DBWrapper(context));
+        synchronized (Wrapper.class) {
+            Wrapper.setInstance(new DBWrapper(context));
+        }
     }
 }
\ No newline at end of file
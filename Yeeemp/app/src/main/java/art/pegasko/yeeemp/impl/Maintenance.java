@@ -0,0 +1,227 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import art.pegasko.yeeemp.base.Wrapper;
+
+/**
+ * Database maintenance: orphan rows collection and file shrinking.
+ *
+ * Orphans are collected same way as `Root.cleanup()` of python tool: links to missing queues, events and tags,
+ * events not linked to any queue and tags not used by any event. Tables are scanned in windows of rowids, each
+ * window deleted by single statement under database monitor, so app writes interleave with collection and every
+ * step does bounded work.
+ *
+ * Freed pages are returned to file system with `auto_vacuum = INCREMENTAL`, which new databases are created with.
+ * Database created without it is not converted: full `VACUUM` rewrites whole file under database monitor and can
+ * not be cancelled, its free pages are reused by later inserts instead.
+ */
+public class Maintenance {
+    public static final String TAG = Maintenance.class.getSimpleName();
+
+    /* Rowids scanned per delete statement */
+    private static final int BATCH_SIZE = 1000;
+
+    /* Pages freed per incremental_vacuum step */
+    private static final int VACUUM_STEP_PAGES = 256;
+
+    /* PRAGMA auto_vacuum value for INCREMENTAL */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Checked between steps, maintenance stops early when set
+     */
+    public interface Cancellation {
+        boolean isCancelled();
+    }
+
+    /**
+     * Result of maintenance run
+     */
+    public static class Report {
+        public long queueEventRows;
+        public long eventTagRows;
+        public long eventRows;
+        public long tagRows;
+        public long reclaimedPages;
+        public long pageSize;
+        public boolean cancelled;
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Report{queue_event=");
+            sb.append(this.queueEventRows);
+            sb.append(",event_tag=");
+            sb.append(this.eventTagRows);
+            sb.append(",event=");
+            sb.append(this.eventRows);
+            sb.append(",tag=");
+            sb.append(this.tagRows);
+            sb.append(",reclaimedPages=");
+            sb.append(this.reclaimedPages);
+            sb.append(",reclaimedBytes=");
+            sb.append(this.reclaimedPages * this.pageSize);
+            sb.append(",cancelled=");
+            sb.append(this.cancelled);
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+
+    private final SQLiteDatabase db;
+    private final Statements statements;
+    private final Cancellation cancellation;
+
+    private Maintenance(SQLiteDatabase db, Cancellation cancellation) {
+        this.db = db;
+        this.statements = Statements.of(db);
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Run maintenance on current database, blocking, must not be called on main thread
+     */
+    public static Report run(Cancellation cancellation) {
+        SQLiteDatabase db = ((DBWrapper) Wrapper.instance()).db;
+        Report report = new Maintenance(db, cancellation).run();
+        Log.i(TAG, "Maintenance finished: " + report);
+        return report;
+    }
+
+    private Report run() {
+        Report report = new Report();
+        try {
+            report.pageSize = this.queryPragma("page_size");
+            long pageCount = this.queryPragma("page_count");
+
+            // Links first, so events and tags losing them are collected in the same run
+            report.queueEventRows = this.collect(
+                "queue_event",
+                "not exists (select 1 from queue where queue.id = queue_event.queue_id) or " +
+                "not exists (select 1 from event where event.id = queue_event.event_id)"
+            );
+            report.eventTagRows = this.collect(
+                "event_tag",
+                "not exists (select 1 from event where event.id = event_tag.event_id) or " +
+                "not exists (select 1 from tag where tag.id = event_tag.tag_id)"
+            );
+            report.eventRows = this.collect(
+                "event",
+                "not exists (select 1 from queue_event where queue_event.event_id = event.id)"
+            );
+            report.tagRows = this.collect(
+                "tag",
+                "not exists (select 1 from event_tag where event_tag.tag_id = tag.id)"
+            );
+
+            this.vacuum();
+
+            report.reclaimedPages = Math.max(0, pageCount - this.queryPragma("page_count"));
+        } catch (SQLiteException e) {
+            Log.wtf(TAG, e);
+        }
+
+        report.cancelled = this.isCancelled();
+        return report;
+    }
+
+    private boolean isCancelled() {
+        return this.cancellation != null && this.cancellation.isCancelled();
+    }
+
+    private long queryPragma(String name) {
+        Cursor cursor = this.db.rawQuery("PRAGMA " + name, null);
+        return Utils.getLongAndClose(cursor, 0);
+    }
+
+    /**
+     * Delete rows of table matching condition, window of rowids at a time
+     *
+     * @return number of deleted rows
+     */
+    private long collect(String table, String condition) {
+        long maxRowId = this.statements.queryLong("select ifnull(max(rowid), 0) from " + table, 0);
+        String sql = "delete from " + table + " where rowid > ? and rowid <= ? and (" + condition + ")";
+
+        long deleted = 0;
+        for (long from = 0; from < maxRowId; from += BATCH_SIZE) {
+            if (this.isCancelled())
+                break;
+
+            synchronized (this.db) {
+                deleted += this.statements.delete(sql, from, from + BATCH_SIZE);
+            }
+        }
+
+        if (deleted != 0) {
+            Log.i(TAG, "Deleted " + deleted + " orphan rows from " + table);
+
+            // Handles of deleted rows must not be reused
+            if (table.equals("event"))
+                EventImpl.clearCache();
+            if (table.equals("tag"))
+                TagImpl.clearCache();
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Return free pages to file system
+     */
+    private void vacuum() {
+        if (this.isCancelled())
+            return;
+
+        // Mode of existing database changes only with full rebuild, which is skipped
+        if (this.queryPragma("auto_vacuum") != AUTO_VACUUM_INCREMENTAL)
+            return;
+
+        while (!this.isCancelled()) {
+            synchronized (this.db) {
+                if (this.queryPragma("freelist_count") == 0)
+                    return;
+
+                Cursor cursor = this.db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")", null);
+                if (cursor != null) {
+                    while (cursor.moveToNext()) {
+                        // Pages are freed while stepping through pragma
+                    }
+                    cursor.close();
+                }
+            }
+        }
+    }
+}
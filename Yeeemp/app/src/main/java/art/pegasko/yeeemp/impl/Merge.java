@@ -0,0 +1,476 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * Merge of another database into current one.
+ *
+ * Source database is opened read-only, its rows are staged into temporary tables of current connection and copied
+ * with set-based statements inside single transaction, so merge either applies completely or not at all, and
+ * triggers keep queue_stat and queue_tag counters in sync on insert. Source is not attached: ATTACH turns off WAL
+ * for connection it runs on, and merge runs on live connection.
+ *
+ * Source ids are remapped through temporary tables:
+ * - queues are matched by name, missing queues are created;
+ * - tags are matched within target queue by name normalized same as in `TagMakerImpl.getOrCreateInQueue()`,
+ *   missing tags are created;
+ * - events are matched within target queue by timestamp, comment and set of target tag ids, missing timestamp is
+ *   matched as 0 like queue_event stores it. Matched events are skipped, others are inserted with new ids
+ *   allocated above current maximum.
+ *
+ * Source must already have current schema. Event linked to several source queues is copied once per queue.
+ */
+public class Merge {
+    public static final String TAG = Merge.class.getSimpleName();
+
+    /* Name prefix of temporary tables source rows are staged in */
+    private static final String SOURCE_PREFIX = "temp.merge_source_";
+
+    /* Rows read from source per query, source tables are paged by rowid */
+    private static final int STAGE_PAGE_SIZE = 4096;
+
+    /* Staged source tables: name, copied columns, staged table definition */
+    private static final String[][] SOURCE_TABLES = {
+        { "queue", "id, name", "id integer primary key, name text" },
+        { "tag", "id, queue_id, name", "id integer primary key, queue_id integer, name text" },
+        { "event", "id, timestamp, comment", "id integer primary key, timestamp integer, comment text" },
+        { "queue_event", "queue_id, event_id", "queue_id integer, event_id integer" },
+        { "event_tag", "event_id, tag_id", "event_id integer, tag_id integer" },
+    };
+
+    // Staged source events and target events they may match
+    static final String CREATE_MERGE_EVENT = (
+        "create temp table merge_event (" +
+        "    src_id integer not null," +
+        "    queue_id integer not null," +
+        "    timestamp integer," +
+        "    comment text," +
+        "    comment_key text not null," +
+        "    signature text not null," +
+        "    dst_id integer," +
+        "    is_new integer not null default 0" +
+        ")"
+    );
+    static final String CREATE_MERGE_EXISTING = (
+        "create temp table merge_existing (" +
+        "    queue_id integer not null," +
+        "    timestamp integer," +
+        "    comment_key text not null," +
+        "    signature text not null," +
+        "    event_id integer not null" +
+        ")"
+    );
+
+    /*
+     * Only target events sharing queue and timestamp with source ones can match, they are read by
+     * queue_event__queue_id_timestamp_event_id. queue_event stores missing timestamp as 0, source timestamp is
+     * compared same way, otherwise NULL would never match.
+     */
+    static final String INSERT_EXISTING = (
+        "insert into merge_existing (queue_id, timestamp, comment_key, signature, event_id)" +
+        "    select" +
+        "        main.queue_event.queue_id," +
+        "        main.queue_event.timestamp," +
+        "        ifnull(main.event.comment, '')," +
+        "        ifnull((" +
+        "            select group_concat(tag_id) from (" +
+        "                select main.event_tag.tag_id as tag_id" +
+        "                from main.event_tag" +
+        "                where main.event_tag.event_id = main.event.id" +
+        "                order by main.event_tag.tag_id" +
+        "            )" +
+        "        ), '')," +
+        "        main.event.id" +
+        "    from (select distinct queue_id, ifnull(timestamp, 0) as timestamp from merge_event) as candidate" +
+        "    inner join main.queue_event" +
+        "        on main.queue_event.queue_id = candidate.queue_id" +
+        "        and main.queue_event.timestamp = candidate.timestamp" +
+        "    inner join main.event on main.event.id = main.queue_event.event_id"
+    );
+
+    /**
+     * Result of merge
+     */
+    public static class Report {
+        public long queues;
+        public long tags;
+        public long events;
+        public long duplicateEvents;
+
+        @NonNull
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Report{queues=");
+            sb.append(this.queues);
+            sb.append(",tags=");
+            sb.append(this.tags);
+            sb.append(",events=");
+            sb.append(this.events);
+            sb.append(",duplicateEvents=");
+            sb.append(this.duplicateEvents);
+            sb.append("}");
+            return sb.toString();
+        }
+    }
+
+    private final SQLiteDatabase db;
+
+    private Merge(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Merge database file into `db`, blocking.
+     *
+     * !synchronized
+     */
+    static Report run(SQLiteDatabase db, File source) {
+        Merge merge = new Merge(db);
+
+        SQLiteDatabase sourceDb = SQLiteDatabase.openDatabase(source.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            Report report;
+
+            // Temporary tables are per connection, transaction keeps this thread on primary connection
+            db.beginTransaction();
+            try {
+                merge.dropTemporaryTables();
+                merge.stage(sourceDb);
+                report = merge.run();
+                db.setTransactionSuccessful();
+            } finally {
+                merge.dropTemporaryTables();
+                db.endTransaction();
+            }
+
+            Log.i(TAG, "Merge finished: " + report);
+            return report;
+        } finally {
+            sourceDb.close();
+        }
+    }
+
+    /**
+     * Copy source tables into temporary tables of `db`
+     */
+    private void stage(SQLiteDatabase source) {
+        for (String[] table : SOURCE_TABLES) {
+            this.db.execSQL("create table " + SOURCE_PREFIX + table[0] + " (" + table[2] + ")");
+            this.stageTable(source, table[0], table[1]);
+        }
+
+        // Source event tags are looked up by event
+        this.db.execSQL("create index " + SOURCE_PREFIX + "event_tag__event_id on merge_source_event_tag (event_id)");
+    }
+
+    /**
+     * Copy columns of source table page by page with prepared insert
+     */
+    private void stageTable(SQLiteDatabase source, String table, String columns) {
+        int count = columns.split(",").length;
+
+        StringBuilder values = new StringBuilder("?");
+        for (int index = 1; index < count; ++index) {
+            values.append(", ?");
+        }
+
+        SQLiteStatement insert = this.db.compileStatement(
+            "insert into " + SOURCE_PREFIX + table + " (" + columns + ") values (" + values + ")"
+        );
+        try {
+            String select = (
+                "select rowid, " + columns + " from " + table + " where rowid > ? order by rowid limit " + STAGE_PAGE_SIZE
+            );
+
+            long after = Long.MIN_VALUE;
+            int rows;
+            do {
+                rows = 0;
+
+                Cursor cursor = source.rawQuery(select, new String[] { Long.toString(after) });
+                try {
+                    while (cursor.moveToNext()) {
+                        after = cursor.getLong(0);
+
+                        insert.clearBindings();
+                        for (int index = 1; index <= count; ++index) {
+                            bindColumn(insert, index, cursor, index);
+                        }
+                        insert.executeInsert();
+
+                        ++rows;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (rows == STAGE_PAGE_SIZE);
+        } finally {
+            insert.close();
+        }
+    }
+
+    private static void bindColumn(SQLiteStatement statement, int index, Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                statement.bindLong(index, cursor.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                statement.bindDouble(index, cursor.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                statement.bindString(index, cursor.getString(column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                statement.bindBlob(index, cursor.getBlob(column));
+                break;
+            default:
+                statement.bindNull(index);
+                break;
+        }
+    }
+
+    private Report run() {
+        Report report = new Report();
+
+        this.db.execSQL("create temp table merge_queue (src_id integer primary key, dst_id integer not null)");
+        this.db.execSQL("create temp table merge_tag_name (src_id integer primary key, src_queue_id integer, name text)");
+        this.db.execSQL("create temp table merge_tag (src_id integer primary key, dst_id integer not null)");
+        this.db.execSQL(CREATE_MERGE_EVENT);
+        this.db.execSQL(CREATE_MERGE_EXISTING);
+
+        report.queues = this.mergeQueues();
+        report.tags = this.mergeTags();
+
+        long total = this.mapEvents();
+        report.events = this.insertEvents();
+        report.duplicateEvents = total - report.events;
+
+        return report;
+    }
+
+    /**
+     * Map source queues to target queues by name, creating missing ones
+     *
+     * @return number of created queues
+     */
+    private long mergeQueues() {
+        long inserted = this.execute(
+            "insert into main.queue (name)" +
+            "    select distinct src.name from " + SOURCE_PREFIX + "queue as src" +
+            "    where not exists (select 1 from main.queue where main.queue.name is src.name)" +
+            "    order by src.id"
+        );
+
+        this.db.execSQL(
+            "insert into merge_queue (src_id, dst_id)" +
+            "    select src.id, (select min(id) from main.queue where main.queue.name is src.name)" +
+            "    from " + SOURCE_PREFIX + "queue as src"
+        );
+
+        return inserted;
+    }
+
+    /**
+     * Map source tags to target tags of mapped queue by normalized name, creating missing ones.
+     *
+     * Names are normalized in Java, SQLite lower() folds ASCII only.
+     *
+     * @return number of created tags
+     */
+    private long mergeTags() {
+        SQLiteStatement insert = this.db.compileStatement(
+            "insert into merge_tag_name (src_id, src_queue_id, name) values (?, ?, ?)"
+        );
+        try {
+            Cursor cursor = this.db.rawQuery("select id, queue_id, name from " + SOURCE_PREFIX + "tag", null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        String name = cursor.isNull(2) ? "" : cursor.getString(2);
+
+                        insert.bindLong(1, cursor.getLong(0));
+                        insert.bindLong(2, cursor.getLong(1));
+                        insert.bindString(3, name.trim().toLowerCase());
+                        insert.executeInsert();
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+
+        long inserted = this.execute(
+            "insert or ignore into main.tag (queue_id, name)" +
+            "    select merge_queue.dst_id, merge_tag_name.name" +
+            "    from merge_tag_name" +
+            "    inner join merge_queue on merge_queue.src_id = merge_tag_name.src_queue_id" +
+            "    order by merge_tag_name.src_id"
+        );
+
+        this.db.execSQL(
+            "insert into merge_tag (src_id, dst_id)" +
+            "    select merge_tag_name.src_id, main.tag.id" +
+            "    from merge_tag_name" +
+            "    inner join merge_queue on merge_queue.src_id = merge_tag_name.src_queue_id" +
+            "    inner join main.tag on main.tag.queue_id = merge_queue.dst_id and main.tag.name = merge_tag_name.name"
+        );
+
+        return inserted;
+    }
+
+    /**
+     * Compute signatures of source events and of target events they may match, then link matches
+     *
+     * @return number of source events
+     */
+    private long mapEvents() {
+        // Signature is ordered list of distinct target tag ids
+        long total = this.execute(
+            "insert into merge_event (src_id, queue_id, timestamp, comment, comment_key, signature)" +
+            "    select" +
+            "        src_event.id," +
+            "        merge_queue.dst_id," +
+            "        src_event.timestamp," +
+            "        src_event.comment," +
+            "        ifnull(src_event.comment, '')," +
+            "        ifnull((" +
+            "            select group_concat(tag_id) from (" +
+            "                select distinct merge_tag.dst_id as tag_id" +
+            "                from " + SOURCE_PREFIX + "event_tag as src_event_tag" +
+            "                inner join merge_tag on merge_tag.src_id = src_event_tag.tag_id" +
+            "                where src_event_tag.event_id = src_event.id" +
+            "                order by merge_tag.dst_id" +
+            "            )" +
+            "        ), '')" +
+            "    from " + SOURCE_PREFIX + "queue_event as src_queue_event" +
+            "    inner join " + SOURCE_PREFIX + "event as src_event on src_event.id = src_queue_event.event_id" +
+            "    inner join merge_queue on merge_queue.src_id = src_queue_event.queue_id" +
+            "    order by src_event.id"
+        );
+
+        this.db.execSQL(INSERT_EXISTING);
+
+        this.db.execSQL(
+            "create index temp.merge_existing__key on merge_existing (queue_id, timestamp, comment_key, signature)"
+        );
+
+        this.db.execSQL(
+            "update merge_event set dst_id = (" +
+            "    select merge_existing.event_id from merge_existing" +
+            "    where merge_existing.queue_id = merge_event.queue_id" +
+            "    and merge_existing.timestamp = ifnull(merge_event.timestamp, 0)" +
+            "    and merge_existing.comment_key = merge_event.comment_key" +
+            "    and merge_existing.signature = merge_event.signature" +
+            "    limit 1" +
+            ")"
+        );
+
+        return total;
+    }
+
+    /**
+     * Insert unmatched source events with their queue and tag links
+     *
+     * @return number of inserted events
+     */
+    private long insertEvents() {
+        // New ids are allocated above both current maximum and AUTOINCREMENT sequence, so deleted ids are not reused
+        long base = Utils.getLongAndClose(
+            this.db.rawQuery(
+                "select max(" +
+                "    ifnull((select seq from main.sqlite_sequence where name = 'event'), 0)," +
+                "    ifnull((select max(id) from main.event), 0)" +
+                ")",
+                null
+            ),
+            0
+        );
+
+        this.db.execSQL(
+            "update merge_event set dst_id = ? + rowid, is_new = 1 where dst_id is null",
+            new Object[] { base }
+        );
+
+        long inserted = this.execute(
+            "insert into main.event (id, timestamp, comment)" +
+            "    select dst_id, timestamp, comment from merge_event where is_new = 1 order by dst_id"
+        );
+
+        // queue_event trigger copies event timestamp and updates queue_stat and queue_tag
+        this.db.execSQL(
+            "insert into main.queue_event (queue_id, event_id)" +
+            "    select queue_id, dst_id from merge_event where is_new = 1 order by dst_id"
+        );
+
+        this.db.execSQL(
+            "insert or ignore into main.event_tag (event_id, tag_id)" +
+            "    select distinct merge_event.dst_id, merge_tag.dst_id" +
+            "    from merge_event" +
+            "    inner join " + SOURCE_PREFIX + "event_tag as src_event_tag" +
+            "        on src_event_tag.event_id = merge_event.src_id" +
+            "    inner join merge_tag on merge_tag.src_id = src_event_tag.tag_id" +
+            "    where merge_event.is_new = 1"
+        );
+
+        return inserted;
+    }
+
+    /**
+     * Execute insert and return number of inserted rows
+     */
+    private long execute(String sql) {
+        SQLiteStatement statement = this.db.compileStatement(sql);
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void dropTemporaryTables() {
+        this.db.execSQL("drop table if exists temp.merge_queue");
+        this.db.execSQL("drop table if exists temp.merge_tag_name");
+        this.db.execSQL("drop table if exists temp.merge_tag");
+        this.db.execSQL("drop table if exists temp.merge_event");
+        this.db.execSQL("drop table if exists temp.merge_existing");
+
+        for (String[] table : SOURCE_TABLES) {
+            this.db.execSQL("drop table if exists " + SOURCE_PREFIX + table[0]);
+        }
+    }
+}
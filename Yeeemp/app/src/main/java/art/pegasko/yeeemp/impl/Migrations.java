@@ -0,0 +1,815 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * Versioned database schema.
+ *
+ * Schema version is stored in `PRAGMA user_version`, each step upgrades schema by one version. Steps are applied
+ * in order on open, so database with current schema does not execute any DDL. New schema changes must be added
+ * as new steps to the end, existing steps must never change.
+ */
+class Migrations {
+    public static final String TAG = Migrations.class.getSimpleName();
+
+    // @formatter:off
+    private static final String[][] STEPS = new String[][] {
+        // 1: Base schema, databases created before versioning already have it
+        {
+            "CREATE TABLE IF NOT EXISTS tag (" +
+            "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "    queue_id INTEGER," +
+            "    name TEXT" +
+            ");",
+
+            "CREATE INDEX IF NOT EXISTS tag__queue_id ON tag(queue_id);",
+
+            "CREATE INDEX IF NOT EXISTS tag__name ON tag(name);",
+
+            "CREATE TABLE IF NOT EXISTS event (" +
+            "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "    timestamp INTEGER," +
+            "    comment TEXT" +
+            ");",
+
+            "CREATE TABLE IF NOT EXISTS queue (" +
+            "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "    name TEXT" +
+            ");",
+
+            "CREATE TABLE IF NOT EXISTS event_tag (" +
+            "    event_id INTEGER," +
+            "    tag_id INTEGER" +
+            ");",
+
+            "CREATE INDEX IF NOT EXISTS event_tag__event_id_tag_id ON event_tag(event_id, tag_id);",
+
+            "CREATE INDEX IF NOT EXISTS event_tag__event_id ON event_tag(event_id);",
+
+            "CREATE INDEX IF NOT EXISTS event_tag__tag_id ON event_tag(tag_id);",
+
+            "CREATE TABLE IF NOT EXISTS queue_event (" +
+            "    queue_id INTEGER," +
+            "    event_id INTEGER" +
+            ");",
+
+            "CREATE INDEX IF NOT EXISTS queue_event__event_id_tag_id ON queue_event(queue_id, event_id);",
+
+            "CREATE INDEX IF NOT EXISTS queue_event__event_id ON queue_event(queue_id);",
+
+            "CREATE INDEX IF NOT EXISTS queue_event__tag_id ON queue_event(event_id);"
+        },
+
+        // 2: Event count per queue
+        {
+            // Denormalized event count per queue, maintained by triggers below
+            "CREATE TABLE IF NOT EXISTS queue_stat (" +
+            "    queue_id INTEGER PRIMARY KEY," +
+            "    event_count INTEGER NOT NULL DEFAULT 0" +
+            ");",
+
+            // Fill counters for existing queues
+            "DELETE FROM queue_stat;",
+
+            "INSERT INTO queue_stat (queue_id, event_count)" +
+            "    SELECT" +
+            "        id," +
+            "        (SELECT count(*) FROM queue_event WHERE queue_event.queue_id = queue.id)" +
+            "    FROM" +
+            "        queue;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_stat__queue_insert AFTER INSERT ON queue BEGIN" +
+            "    INSERT OR IGNORE INTO queue_stat (queue_id, event_count) VALUES (NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_stat__queue_delete AFTER DELETE ON queue BEGIN" +
+            "    DELETE FROM queue_stat WHERE queue_id = OLD.id;" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_stat__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count + 1 WHERE queue_id = NEW.queue_id;" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_stat__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count - 1 WHERE queue_id = OLD.queue_id;" +
+            "END;"
+        },
+
+        // 3: Event count per tag per queue
+        {
+            // Denormalized count of events having tag per queue, maintained by triggers below
+            "CREATE TABLE IF NOT EXISTS queue_tag (" +
+            "    queue_id INTEGER," +
+            "    tag_id INTEGER," +
+            "    event_count INTEGER NOT NULL DEFAULT 0," +
+            "    PRIMARY KEY (queue_id, tag_id)" +
+            ");",
+
+            "CREATE INDEX IF NOT EXISTS queue_tag__queue_id_event_count ON queue_tag(queue_id, event_count);",
+
+            "CREATE INDEX IF NOT EXISTS queue_tag__tag_id ON queue_tag(tag_id);",
+
+            // Fill counters for existing events
+            "DELETE FROM queue_tag;",
+
+            "INSERT INTO queue_tag (queue_id, tag_id, event_count)" +
+            "    SELECT" +
+            "        queue_id," +
+            "        tag_id," +
+            "        count(*)" +
+            "    FROM (" +
+            "        SELECT DISTINCT" +
+            "            queue_event.queue_id AS queue_id," +
+            "            event_tag.event_id AS event_id," +
+            "            event_tag.tag_id AS tag_id" +
+            "        FROM" +
+            "            queue_event" +
+            "        INNER JOIN" +
+            "            event_tag" +
+            "        ON" +
+            "            queue_event.event_id = event_tag.event_id" +
+            "    )" +
+            "    GROUP BY" +
+            "        queue_id," +
+            "        tag_id;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_tag__event_tag_insert AFTER INSERT ON event_tag BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT queue_id, NEW.tag_id, 0 FROM queue_event WHERE event_id = NEW.event_id;" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE tag_id = NEW.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_tag__event_tag_delete AFTER DELETE ON event_tag BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE tag_id = OLD.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE tag_id = OLD.tag_id AND event_count <= 0;" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_tag__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT NEW.queue_id, tag_id, 0 FROM event_tag WHERE event_id = NEW.event_id;" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE queue_id = NEW.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_tag__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE queue_id = OLD.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE queue_id = OLD.queue_id AND event_count <= 0;" +
+            "END;",
+
+            "CREATE TRIGGER IF NOT EXISTS queue_tag__queue_delete AFTER DELETE ON queue BEGIN" +
+            "    DELETE FROM queue_tag WHERE queue_id = OLD.id;" +
+            "END;"
+        },
+
+        // 4: Index review
+        {
+            // Redundant with leading columns of composite indexes, no query filters by tag name alone
+            "DROP INDEX IF EXISTS event_tag__event_id;",
+
+            "DROP INDEX IF EXISTS queue_event__event_id;",
+
+            "DROP INDEX IF EXISTS tag__queue_id;",
+
+            "DROP INDEX IF EXISTS tag__name;",
+
+            // Merge duplicate tags within queue into the oldest one
+            "UPDATE event_tag SET tag_id = (" +
+            "    SELECT" +
+            "        min(duplicate.id)" +
+            "    FROM" +
+            "        tag" +
+            "    INNER JOIN" +
+            "        tag AS duplicate" +
+            "    ON" +
+            "        duplicate.queue_id = tag.queue_id AND duplicate.name = tag.name" +
+            "    WHERE" +
+            "        tag.id = event_tag.tag_id" +
+            ")" +
+            "WHERE tag_id IN (" +
+            "    SELECT id FROM tag WHERE EXISTS (" +
+            "        SELECT 1 FROM tag AS duplicate" +
+            "        WHERE duplicate.queue_id = tag.queue_id AND duplicate.name = tag.name AND duplicate.id < tag.id" +
+            "    )" +
+            ");",
+
+            "DELETE FROM tag WHERE EXISTS (" +
+            "    SELECT 1 FROM tag AS duplicate" +
+            "    WHERE duplicate.queue_id = tag.queue_id AND duplicate.name = tag.name AND duplicate.id < tag.id" +
+            ");",
+
+            // Drop duplicate links
+            "DELETE FROM event_tag WHERE rowid NOT IN (SELECT min(rowid) FROM event_tag GROUP BY event_id, tag_id);",
+
+            "DELETE FROM queue_event WHERE rowid NOT IN (SELECT min(rowid) FROM queue_event GROUP BY queue_id, event_id);",
+
+            // Unique lookups
+            "CREATE UNIQUE INDEX tag__queue_id_name ON tag(queue_id, name);",
+
+            "DROP INDEX IF EXISTS event_tag__event_id_tag_id;",
+
+            "CREATE UNIQUE INDEX event_tag__event_id_tag_id ON event_tag(event_id, tag_id);",
+
+            "DROP INDEX IF EXISTS queue_event__event_id_tag_id;",
+
+            "CREATE UNIQUE INDEX queue_event__queue_id_event_id ON queue_event(queue_id, event_id);",
+
+            "DROP INDEX IF EXISTS queue_event__tag_id;",
+
+            "CREATE INDEX queue_event__event_id ON queue_event(event_id);",
+
+            // Copy of event timestamp, so events of queue can be read in timestamp order from index without sorting
+            "ALTER TABLE queue_event ADD COLUMN timestamp INTEGER;",
+
+            "UPDATE queue_event SET timestamp = (SELECT timestamp FROM event WHERE event.id = queue_event.event_id);",
+
+            "CREATE INDEX queue_event__queue_id_timestamp_event_id ON queue_event(queue_id, timestamp, event_id);",
+
+            "CREATE TRIGGER queue_event__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    UPDATE queue_event SET timestamp = (SELECT timestamp FROM event WHERE id = NEW.event_id)" +
+            "        WHERE queue_id = NEW.queue_id AND event_id = NEW.event_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_event__event_update AFTER UPDATE OF timestamp ON event BEGIN" +
+            "    UPDATE queue_event SET timestamp = NEW.timestamp WHERE event_id = NEW.id;" +
+            "END;",
+
+            // Counters are affected by merged duplicates
+            "DELETE FROM queue_stat;",
+
+            "INSERT INTO queue_stat (queue_id, event_count)" +
+            "    SELECT" +
+            "        id," +
+            "        (SELECT count(*) FROM queue_event WHERE queue_event.queue_id = queue.id)" +
+            "    FROM" +
+            "        queue;",
+
+            "DELETE FROM queue_tag;",
+
+            "INSERT INTO queue_tag (queue_id, tag_id, event_count)" +
+            "    SELECT" +
+            "        queue_event.queue_id," +
+            "        event_tag.tag_id," +
+            "        count(*)" +
+            "    FROM" +
+            "        queue_event" +
+            "    INNER JOIN" +
+            "        event_tag" +
+            "    ON" +
+            "        queue_event.event_id = event_tag.event_id" +
+            "    GROUP BY" +
+            "        queue_event.queue_id," +
+            "        event_tag.tag_id;"
+        },
+
+        // 5: Foreign keys with cascading deletes, tables are rebuilt as SQLite can not add constraints in place
+        {
+            // Triggers reference rebuilt tables, recreated below
+            "DROP TRIGGER IF EXISTS queue_stat__queue_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_stat__queue_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_stat__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_stat__queue_event_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__event_tag_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__event_tag_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_event_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_event__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_event__event_update;",
+
+            // Rows left by previous manual deletes would violate constraints
+            "DELETE FROM event WHERE id NOT IN (SELECT event_id FROM queue_event WHERE queue_id IN (SELECT id FROM queue));",
+
+            "DELETE FROM queue_event WHERE queue_id NOT IN (SELECT id FROM queue) OR event_id NOT IN (SELECT id FROM event);",
+
+            "DELETE FROM tag WHERE queue_id IS NULL OR queue_id NOT IN (SELECT id FROM queue);",
+
+            "DELETE FROM event_tag WHERE event_id NOT IN (SELECT id FROM event) OR tag_id NOT IN (SELECT id FROM tag);",
+
+            // tag
+            "CREATE TABLE tag_new (" +
+            "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "    queue_id INTEGER NOT NULL REFERENCES queue(id) ON DELETE CASCADE," +
+            "    name TEXT" +
+            ");",
+
+            "INSERT INTO tag_new (id, queue_id, name) SELECT id, queue_id, name FROM tag;",
+
+            // Keep AUTOINCREMENT sequence, so ids of deleted tags are never reused
+            "UPDATE sqlite_sequence SET seq = (" +
+            "    SELECT max(seq) FROM sqlite_sequence WHERE name IN ('tag', 'tag_new')" +
+            ") WHERE name = 'tag_new';",
+
+            "DROP TABLE tag;",
+
+            "ALTER TABLE tag_new RENAME TO tag;",
+
+            "CREATE UNIQUE INDEX tag__queue_id_name ON tag(queue_id, name);",
+
+            // event_tag
+            "CREATE TABLE event_tag_new (" +
+            "    event_id INTEGER NOT NULL REFERENCES event(id) ON DELETE CASCADE," +
+            "    tag_id INTEGER NOT NULL REFERENCES tag(id) ON DELETE CASCADE" +
+            ");",
+
+            "INSERT INTO event_tag_new (event_id, tag_id) SELECT event_id, tag_id FROM event_tag;",
+
+            "DROP TABLE event_tag;",
+
+            "ALTER TABLE event_tag_new RENAME TO event_tag;",
+
+            "CREATE UNIQUE INDEX event_tag__event_id_tag_id ON event_tag(event_id, tag_id);",
+
+            "CREATE INDEX event_tag__tag_id ON event_tag(tag_id);",
+
+            // queue_event
+            "CREATE TABLE queue_event_new (" +
+            "    queue_id INTEGER NOT NULL REFERENCES queue(id) ON DELETE CASCADE," +
+            "    event_id INTEGER NOT NULL REFERENCES event(id) ON DELETE CASCADE," +
+            "    timestamp INTEGER" +
+            ");",
+
+            "INSERT INTO queue_event_new (queue_id, event_id, timestamp) SELECT queue_id, event_id, timestamp FROM queue_event;",
+
+            "DROP TABLE queue_event;",
+
+            "ALTER TABLE queue_event_new RENAME TO queue_event;",
+
+            "CREATE UNIQUE INDEX queue_event__queue_id_event_id ON queue_event(queue_id, event_id);",
+
+            "CREATE INDEX queue_event__event_id ON queue_event(event_id);",
+
+            "CREATE INDEX queue_event__queue_id_timestamp_event_id ON queue_event(queue_id, timestamp, event_id);",
+
+            // queue_stat
+            "CREATE TABLE queue_stat_new (" +
+            "    queue_id INTEGER PRIMARY KEY REFERENCES queue(id) ON DELETE CASCADE," +
+            "    event_count INTEGER NOT NULL DEFAULT 0" +
+            ");",
+
+            "INSERT INTO queue_stat_new (queue_id, event_count)" +
+            "    SELECT" +
+            "        id," +
+            "        (SELECT count(*) FROM queue_event WHERE queue_event.queue_id = queue.id)" +
+            "    FROM" +
+            "        queue;",
+
+            "DROP TABLE queue_stat;",
+
+            "ALTER TABLE queue_stat_new RENAME TO queue_stat;",
+
+            // queue_tag
+            "CREATE TABLE queue_tag_new (" +
+            "    queue_id INTEGER REFERENCES queue(id) ON DELETE CASCADE," +
+            "    tag_id INTEGER REFERENCES tag(id) ON DELETE CASCADE," +
+            "    event_count INTEGER NOT NULL DEFAULT 0," +
+            "    PRIMARY KEY (queue_id, tag_id)" +
+            ");",
+
+            "INSERT INTO queue_tag_new (queue_id, tag_id, event_count)" +
+            "    SELECT" +
+            "        queue_event.queue_id," +
+            "        event_tag.tag_id," +
+            "        count(*)" +
+            "    FROM" +
+            "        queue_event" +
+            "    INNER JOIN" +
+            "        event_tag" +
+            "    ON" +
+            "        queue_event.event_id = event_tag.event_id" +
+            "    GROUP BY" +
+            "        queue_event.queue_id," +
+            "        event_tag.tag_id;",
+
+            "DROP TABLE queue_tag;",
+
+            "ALTER TABLE queue_tag_new RENAME TO queue_tag;",
+
+            "CREATE INDEX queue_tag__queue_id_event_count ON queue_tag(queue_id, event_count);",
+
+            "CREATE INDEX queue_tag__tag_id ON queue_tag(tag_id);",
+
+            // Same triggers as before, except for queue deletes handled by cascades. Cascading deletes fire them too:
+            // when event is deleted, whichever of its queue_event and event_tag rows goes first updates queue_tag
+            // through the other one, so each count is decremented once.
+            "CREATE TRIGGER queue_stat__queue_insert AFTER INSERT ON queue BEGIN" +
+            "    INSERT OR IGNORE INTO queue_stat (queue_id, event_count) VALUES (NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER queue_stat__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count + 1 WHERE queue_id = NEW.queue_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_stat__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count - 1 WHERE queue_id = OLD.queue_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__event_tag_insert AFTER INSERT ON event_tag BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT queue_id, NEW.tag_id, 0 FROM queue_event WHERE event_id = NEW.event_id;" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE tag_id = NEW.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__event_tag_delete AFTER DELETE ON event_tag BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE tag_id = OLD.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE tag_id = OLD.tag_id AND event_count <= 0;" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT NEW.queue_id, tag_id, 0 FROM event_tag WHERE event_id = NEW.event_id;" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE queue_id = NEW.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE queue_id = OLD.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE queue_id = OLD.queue_id AND event_count <= 0;" +
+            "END;",
+
+            "CREATE TRIGGER queue_event__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    UPDATE queue_event SET timestamp = (SELECT timestamp FROM event WHERE id = NEW.event_id)" +
+            "        WHERE queue_id = NEW.queue_id AND event_id = NEW.event_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_event__event_update AFTER UPDATE OF timestamp ON event BEGIN" +
+            "    UPDATE queue_event SET timestamp = NEW.timestamp WHERE event_id = NEW.id;" +
+            "END;"
+        },
+
+        // 6: Change log for incremental backups, see Backup. Rows are keys of changed rows of base tables, codes of
+        // tables are: 1 queue, 2 tag, 3 event, 4 event_tag, 5 queue_event. Derived tables are rebuilt on restore.
+        {
+            "CREATE TABLE IF NOT EXISTS change_log (" +
+            "    id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "    tbl INTEGER NOT NULL," +
+            "    key1 INTEGER NOT NULL," +
+            "    key2 INTEGER NOT NULL" +
+            ");",
+
+            "CREATE TRIGGER change_log__queue_insert AFTER INSERT ON queue BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (1, NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__queue_update AFTER UPDATE ON queue BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (1, NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__queue_delete AFTER DELETE ON queue BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (1, OLD.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__tag_insert AFTER INSERT ON tag BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (2, NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__tag_update AFTER UPDATE ON tag BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (2, NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__tag_delete AFTER DELETE ON tag BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (2, OLD.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__event_insert AFTER INSERT ON event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (3, NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__event_update AFTER UPDATE ON event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (3, NEW.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__event_delete AFTER DELETE ON event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (3, OLD.id, 0);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__event_tag_insert AFTER INSERT ON event_tag BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (4, NEW.event_id, NEW.tag_id);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__event_tag_delete AFTER DELETE ON event_tag BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (4, OLD.event_id, OLD.tag_id);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (5, NEW.queue_id, NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (5, OLD.queue_id, OLD.event_id);" +
+            "END;"
+        },
+
+        // 7: Stale queues for bulk import. Insert triggers skip queue_stat and queue_tag of queues listed in
+        // stale_queue, their stats are rebuilt at once with REBUILD_QUEUE_STATS. Timestamp of queue_event is copied
+        // from event only when insert does not give it.
+        {
+            "CREATE TABLE IF NOT EXISTS stale_queue (" +
+            "    queue_id INTEGER PRIMARY KEY REFERENCES queue(id) ON DELETE CASCADE" +
+            ");",
+
+            "DROP TRIGGER IF EXISTS queue_stat__queue_event_insert;",
+
+            "CREATE TRIGGER queue_stat__queue_event_insert AFTER INSERT ON queue_event" +
+            "    WHEN NOT EXISTS (SELECT 1 FROM stale_queue WHERE queue_id = NEW.queue_id) BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count + 1 WHERE queue_id = NEW.queue_id;" +
+            "END;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_event_insert;",
+
+            "CREATE TRIGGER queue_tag__queue_event_insert AFTER INSERT ON queue_event" +
+            "    WHEN NOT EXISTS (SELECT 1 FROM stale_queue WHERE queue_id = NEW.queue_id) BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT NEW.queue_id, tag_id, 0 FROM event_tag WHERE event_id = NEW.event_id;" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE queue_id = NEW.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = NEW.event_id);" +
+            "END;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__event_tag_insert;",
+
+            "CREATE TRIGGER queue_tag__event_tag_insert AFTER INSERT ON event_tag" +
+            "    WHEN EXISTS (" +
+            "        SELECT 1 FROM queue_event WHERE event_id = NEW.event_id" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue)" +
+            "    ) BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT queue_id, NEW.tag_id, 0 FROM queue_event WHERE event_id = NEW.event_id" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue);" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE tag_id = NEW.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = NEW.event_id)" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue);" +
+            "END;",
+
+            "DROP TRIGGER IF EXISTS queue_event__queue_event_insert;",
+
+            "CREATE TRIGGER queue_event__queue_event_insert AFTER INSERT ON queue_event WHEN NEW.timestamp IS NULL BEGIN" +
+            "    UPDATE queue_event SET timestamp = (SELECT timestamp FROM event WHERE id = NEW.event_id)" +
+            "        WHERE queue_id = NEW.queue_id AND event_id = NEW.event_id;" +
+            "END;"
+        },
+
+        // 8: Timestamp of queue_event is never NULL, events without timestamp are stored as 0, same as they are read.
+        // Keyset paging compares timestamps, NULL would never match and such events were skipped. Table is rebuilt
+        // as SQLite can not add NOT NULL in place.
+        {
+            // Triggers reference rebuilt table, recreated below
+            "DROP TRIGGER IF EXISTS queue_stat__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_stat__queue_event_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__event_tag_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__event_tag_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_event_delete;",
+
+            "DROP TRIGGER IF EXISTS queue_event__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS queue_event__event_update;",
+
+            "DROP TRIGGER IF EXISTS change_log__queue_event_insert;",
+
+            "DROP TRIGGER IF EXISTS change_log__queue_event_delete;",
+
+            "CREATE TABLE queue_event_new (" +
+            "    queue_id INTEGER NOT NULL REFERENCES queue(id) ON DELETE CASCADE," +
+            "    event_id INTEGER NOT NULL REFERENCES event(id) ON DELETE CASCADE," +
+            "    timestamp INTEGER NOT NULL DEFAULT 0" +
+            ");",
+
+            "INSERT INTO queue_event_new (queue_id, event_id, timestamp)" +
+            "    SELECT" +
+            "        queue_id," +
+            "        event_id," +
+            "        ifnull((SELECT timestamp FROM event WHERE event.id = queue_event.event_id), 0)" +
+            "    FROM" +
+            "        queue_event;",
+
+            "DROP TABLE queue_event;",
+
+            "ALTER TABLE queue_event_new RENAME TO queue_event;",
+
+            "CREATE UNIQUE INDEX queue_event__queue_id_event_id ON queue_event(queue_id, event_id);",
+
+            "CREATE INDEX queue_event__event_id ON queue_event(event_id);",
+
+            "CREATE INDEX queue_event__queue_id_timestamp_event_id ON queue_event(queue_id, timestamp, event_id);",
+
+            // Same as version 7
+            "CREATE TRIGGER queue_stat__queue_event_insert AFTER INSERT ON queue_event" +
+            "    WHEN NOT EXISTS (SELECT 1 FROM stale_queue WHERE queue_id = NEW.queue_id) BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count + 1 WHERE queue_id = NEW.queue_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_stat__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count - 1 WHERE queue_id = OLD.queue_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__event_tag_insert AFTER INSERT ON event_tag" +
+            "    WHEN EXISTS (" +
+            "        SELECT 1 FROM queue_event WHERE event_id = NEW.event_id" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue)" +
+            "    ) BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT queue_id, NEW.tag_id, 0 FROM queue_event WHERE event_id = NEW.event_id" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue);" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE tag_id = NEW.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = NEW.event_id)" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue);" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__event_tag_delete AFTER DELETE ON event_tag BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE tag_id = OLD.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE tag_id = OLD.tag_id AND event_count <= 0;" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__queue_event_insert AFTER INSERT ON queue_event" +
+            "    WHEN NOT EXISTS (SELECT 1 FROM stale_queue WHERE queue_id = NEW.queue_id) BEGIN" +
+            "    INSERT OR IGNORE INTO queue_tag (queue_id, tag_id, event_count)" +
+            "        SELECT NEW.queue_id, tag_id, 0 FROM event_tag WHERE event_id = NEW.event_id;" +
+            "    UPDATE queue_tag SET event_count = event_count + 1" +
+            "        WHERE queue_id = NEW.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER queue_tag__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE queue_id = OLD.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE queue_id = OLD.queue_id AND event_count <= 0;" +
+            "END;",
+
+            "CREATE TRIGGER change_log__queue_event_insert AFTER INSERT ON queue_event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (5, NEW.queue_id, NEW.event_id);" +
+            "END;",
+
+            "CREATE TRIGGER change_log__queue_event_delete AFTER DELETE ON queue_event BEGIN" +
+            "    INSERT INTO change_log (tbl, key1, key2) VALUES (5, OLD.queue_id, OLD.event_id);" +
+            "END;",
+
+            // Inserts without timestamp get 0 from default, then copy of event timestamp. Inserts giving the right
+            // timestamp, as import does, cost one lookup of event.
+            "CREATE TRIGGER queue_event__queue_event_insert AFTER INSERT ON queue_event" +
+            "    WHEN NEW.timestamp != ifnull((SELECT timestamp FROM event WHERE id = NEW.event_id), 0) BEGIN" +
+            "    UPDATE queue_event SET timestamp = ifnull((SELECT timestamp FROM event WHERE id = NEW.event_id), 0)" +
+            "        WHERE queue_id = NEW.queue_id AND event_id = NEW.event_id;" +
+            "END;",
+
+            "CREATE TRIGGER queue_event__event_update AFTER UPDATE OF timestamp ON event BEGIN" +
+            "    UPDATE queue_event SET timestamp = ifnull(NEW.timestamp, 0) WHERE event_id = NEW.id;" +
+            "END;"
+        },
+
+        // 9: Delete triggers skip queue_stat and queue_tag of queues listed in stale_queue, same as insert triggers of
+        // version 7. Queue delete marks queue stale, so deleting its events does not update counters row by row, its
+        // stats rows go with the queue by cascade. Change log triggers still fire, deltas need each deleted row.
+        {
+            "DROP TRIGGER IF EXISTS queue_stat__queue_event_delete;",
+
+            "CREATE TRIGGER queue_stat__queue_event_delete AFTER DELETE ON queue_event" +
+            "    WHEN NOT EXISTS (SELECT 1 FROM stale_queue WHERE queue_id = OLD.queue_id) BEGIN" +
+            "    UPDATE queue_stat SET event_count = event_count - 1 WHERE queue_id = OLD.queue_id;" +
+            "END;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__queue_event_delete;",
+
+            "CREATE TRIGGER queue_tag__queue_event_delete AFTER DELETE ON queue_event" +
+            "    WHEN NOT EXISTS (SELECT 1 FROM stale_queue WHERE queue_id = OLD.queue_id) BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE queue_id = OLD.queue_id AND tag_id IN (SELECT tag_id FROM event_tag WHERE event_id = OLD.event_id);" +
+            "    DELETE FROM queue_tag WHERE queue_id = OLD.queue_id AND event_count <= 0;" +
+            "END;",
+
+            "DROP TRIGGER IF EXISTS queue_tag__event_tag_delete;",
+
+            "CREATE TRIGGER queue_tag__event_tag_delete AFTER DELETE ON event_tag" +
+            "    WHEN EXISTS (" +
+            "        SELECT 1 FROM queue_event WHERE event_id = OLD.event_id" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue)" +
+            "    ) BEGIN" +
+            "    UPDATE queue_tag SET event_count = event_count - 1" +
+            "        WHERE tag_id = OLD.tag_id AND queue_id IN (SELECT queue_id FROM queue_event WHERE event_id = OLD.event_id)" +
+            "        AND queue_id NOT IN (SELECT queue_id FROM stale_queue);" +
+            "    DELETE FROM queue_tag WHERE tag_id = OLD.tag_id AND event_count <= 0;" +
+            "END;"
+        }
+    };
+
+    /**
+     * Recompute queue_stat and queue_tag of one queue, same as fill statements of version 5. Each statement takes
+     * queue id as its only argument.
+     */
+    static final String[] REBUILD_QUEUE_STATS = new String[] {
+        "UPDATE queue_stat" +
+        "    SET event_count = (SELECT count(*) FROM queue_event WHERE queue_event.queue_id = queue_stat.queue_id)" +
+        "    WHERE queue_id = ?;",
+
+        "DELETE FROM queue_tag WHERE queue_id = ?;",
+
+        "INSERT INTO queue_tag (queue_id, tag_id, event_count)" +
+        "    SELECT" +
+        "        queue_event.queue_id," +
+        "        event_tag.tag_id," +
+        "        count(*)" +
+        "    FROM" +
+        "        queue_event" +
+        "    INNER JOIN" +
+        "        event_tag" +
+        "    ON" +
+        "        queue_event.event_id = event_tag.event_id" +
+        "    WHERE" +
+        "        queue_event.queue_id = ?" +
+        "    GROUP BY" +
+        "        queue_event.queue_id," +
+        "        event_tag.tag_id;"
+    };
+    // @formatter:on
+
+    /**
+     * Current schema version
+     */
+    public static final int VERSION = STEPS.length;
+
+    /**
+     * Statements of step upgrading schema to given version, for applying schema outside of Android in tests
+     */
+    static String[] getStep(int version) {
+        return STEPS[version - 1].clone();
+    }
+
+    /**
+     * Upgrade database schema to current version, each step in own transaction.
+     *
+     * @throws SQLiteException if database schema is newer than supported or step failed
+     */
+    static void migrate(SQLiteDatabase db) {
+        int version = db.getVersion();
+        if (version == VERSION)
+            return;
+
+        if (version > VERSION)
+            throw new SQLiteException("Database schema version " + version + " is newer than supported " + VERSION);
+
+        for (int step = version; step < VERSION; ++step) {
+            Log.d(TAG, "Migrating database to version " + (step + 1));
+
+            db.beginTransaction();
+            try {
+                for (String query : STEPS[step]) {
+                    Log.d(TAG, query);
+                    db.execSQL(query);
+                }
+
+                db.setVersion(step + 1);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        Log.d(TAG, "Database migrated");
+    }
+}
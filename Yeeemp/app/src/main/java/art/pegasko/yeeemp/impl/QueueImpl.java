@@ -25,7 +25,6 @@
 
 package art.pegasko.yeeemp.impl;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
@@ -33,20 +32,61 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+
 import art.pegasko.yeeemp.base.Event;
 import art.pegasko.yeeemp.base.EventOrder;
 import art.pegasko.yeeemp.base.Queue;
+import art.pegasko.yeeemp.base.Tag;
 import art.pegasko.yeeemp.base.TagStat;
 
 public class QueueImpl implements Queue {
     public static final String TAG = QueueImpl.class.getSimpleName();
 
+    /* Tags of queue by number of events, read in order of queue_tag__queue_id_event_count */
+    static final String GLOBAL_TAGS_QUERY = (
+        "select\n" +
+        "    queue_tag.tag_id,\n" +
+        "    tag.name,\n" +
+        "    queue_tag.event_count\n" +
+        "from\n" +
+        "    queue_tag\n" +
+        "left join\n" +
+        "    tag\n" +
+        "on\n" +
+        "    queue_tag.tag_id = tag.id\n" +
+        "where\n" +
+        "    queue_tag.queue_id = ?\n" +
+        "order by\n" +
+        "    queue_tag.event_count desc"
+    );
+
     private final SQLiteDatabase db;
+    private final Statements statements;
     private final int id;
 
+    // Hydrated row values, valid when `hydrated` is set
+    private final boolean hydrated;
+    private volatile String cachedName;
+    private volatile int cachedEventCount;
+
     protected QueueImpl(SQLiteDatabase db, int id) {
         this.db = db;
+        this.statements = Statements.of(db);
+        this.id = id;
+        this.hydrated = false;
+    }
+
+    /**
+     * Construct queue with row values already known from query
+     */
+    protected QueueImpl(SQLiteDatabase db, int id, String name, int eventCount) {
+        this.db = db;
+        this.statements = Statements.of(db);
         this.id = id;
+        this.hydrated = true;
+        this.cachedName = name;
+        this.cachedEventCount = eventCount;
     }
 
     @Override
@@ -56,115 +96,247 @@ public class QueueImpl implements Queue {
 
     @Override
     public String getName() {
-        synchronized (this.db) {
-            Cursor cursor = db.query(
-                "queue",
-                new String[] { "name" },
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) },
-                null,
-                null,
-                null
-            );
-
-            return Utils.getStringAndClose(cursor, null);
-        }
+        if (this.hydrated)
+            return this.cachedName;
+
+        return this.statements.queryString("select name from queue where id = ?", null, this.getId());
     }
 
     @Override
     public void setName(String name) {
         synchronized (this.db) {
-            ContentValues cv = new ContentValues();
-            cv.put("name", name);
-
-            db.update(
-                "queue",
-                cv,
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) }
-            );
+            this.statements.update("update queue set name = ? where id = ?", name, this.getId());
+
+            this.cachedName = name;
         }
     }
 
     @Override
     public Event[] getEvents(EventOrder.Order order) {
-        synchronized (this.db) {
-            Cursor cursor;
-
-            // Requires JOIN
-            if ((order == EventOrder.Order.TIMESTAMP_ASC) || (order == EventOrder.Order.TIMESTAMP_DESC)) {
-                String query = (
-                    "select\n" +
-                    "    queue_event.event_id\n" +
-                    "from\n" +
-                    "    queue_event\n" +
-                    "left join\n" +
-                    "    event\n" +
-                    "on\n" +
-                    "    queue_event.event_id = event.id\n" +
-                    "where\n" +
-                    "    queue_event.queue_id = ?\n" +
-                    "order by\n" +
-                    "    timestamp "
-                );
+        return this.getEvents(order, null, -1);
+    }
 
-                if (order == EventOrder.Order.TIMESTAMP_ASC) {
-                    query += "asc";
-                } else {
-                    query += "desc";
-                }
-                cursor = db.rawQuery(
-                    query,
-                    new String[] { Integer.toString(this.getId()) }
-                );
-            } else {
-                cursor = db.query(
-                    "queue_event",
-                    new String[] { "event_id" },
-                    "queue_id = ?",
-                    new String[] { Integer.toString(this.getId()) },
-                    null,
-                    null,
-                    ( order == EventOrder.Order.ID_ASC ?
-                        "event_id asc" :
-                    ( order == EventOrder.Order.ID_DESC ?
-                        "event_id desc" :
-                        null
-                    ))
+    /**
+     * Get page of events following `after` event in given order.
+     *
+     * Pages are selected with keyset on (timestamp, id) or (id) depending on order, so `after` must be the last
+     * event of previous page loaded with the same order. Pass null `after` to get first page and negative `limit`
+     * to get all remaining events.
+     */
+    @Override
+    public Event[] getEvents(EventOrder.Order order, Event after, int limit) {
+        if (after == null) {
+            return this.getEvents(order, false, 0, 0, limit);
+        }
+
+        return this.getEvents(order, true, after.getTimestamp(), after.getId(), limit);
+    }
+
+    /**
+     * Get page of events following event with given timestamp and id in given order.
+     *
+     * Use with values of last event of previous page as they were loaded, so page boundary does not move when that
+     * event is changed in the meantime.
+     */
+    @Override
+    public Event[] getEvents(EventOrder.Order order, long afterTimestamp, int afterId, int limit) {
+        return this.getEvents(order, true, afterTimestamp, afterId, limit);
+    }
+
+    private Event[] getEvents(EventOrder.Order order, boolean hasAfter, long afterTimestamp, int afterId, int limit) {
+        ArrayList<String> args = new ArrayList<String>();
+        String query = eventsQuery(this.getId(), order, hasAfter, afterTimestamp, afterId, limit, args);
+
+        Cursor cursor = db.rawQuery(
+            query,
+            args.toArray(new String[0])
+        );
+
+        if (cursor == null) {
+            return new Event[0];
+        }
+
+        ArrayList<Event> events = this.readEvents(cursor);
+        cursor.close();
+
+        return events.toArray(new Event[0]);
+    }
+
+    /**
+     * Build query selecting page of events of queue with their tags, appending bind args.
+     *
+     * Inner query seeks index on (queue_id, timestamp, event_id) for timestamp orders, outer query sorts only the
+     * rows of selected page.
+     */
+    static String eventsQuery(
+        int queueId,
+        EventOrder.Order order,
+        boolean hasAfter,
+        long afterTimestamp,
+        int afterId,
+        int limit,
+        ArrayList<String> args
+    ) {
+        args.add(Integer.toString(queueId));
+
+        String keyset = "";
+        if (hasAfter) {
+            keyset = "        and " + keysetToSQL(order, afterTimestamp, afterId, args) + "\n";
+        }
+
+        args.add(Integer.toString(limit));
+
+        // Select page of events first, then join tags of this page, one row per (event, tag) pair. Timestamp is taken
+        // from queue_event, where missing timestamp is stored as 0, so both orders and keyset see the same value
+        // as Event.getTimestamp() does.
+        return (
+            "select\n" +
+            "    page.event_id,\n" +
+            "    page.timestamp,\n" +
+            "    page.comment,\n" +
+            "    event_tag.tag_id,\n" +
+            "    tag.name\n" +
+            "from (\n" +
+            "    select\n" +
+            "        queue_event.event_id as event_id,\n" +
+            "        queue_event.timestamp as timestamp,\n" +
+            "        event.comment as comment\n" +
+            "    from\n" +
+            "        queue_event\n" +
+            "    left join\n" +
+            "        event\n" +
+            "    on\n" +
+            "        queue_event.event_id = event.id\n" +
+            "    where\n" +
+            "        queue_event.queue_id = ?\n" +
+            keyset +
+            "    order by\n" +
+            "        " + orderToSQL(order, "queue_event.event_id", "queue_event.timestamp") + "\n" +
+            "    limit ?\n" +
+            ") as page\n" +
+            "left join\n" +
+            "    event_tag\n" +
+            "on\n" +
+            "    page.event_id = event_tag.event_id\n" +
+            "left join\n" +
+            "    tag\n" +
+            "on\n" +
+            "    event_tag.tag_id = tag.id\n" +
+            "order by\n" +
+            "    " + orderToSQL(order, "page.event_id", "page.timestamp") + ",\n" +
+            "    event_tag.tag_id desc"
+        );
+    }
+
+    /**
+     * Build ORDER BY clause for events query.
+     *
+     * Rows of the same event must stay adjacent, so every order ends with event id.
+     */
+    private static String orderToSQL(EventOrder.Order order, String idColumn, String timestampColumn) {
+        if (order == null) {
+            return idColumn + " asc";
+        }
+
+        switch (order) {
+            case ID_ASC:
+                return idColumn + " asc";
+            case ID_DESC:
+                return idColumn + " desc";
+            case TIMESTAMP_ASC:
+                return timestampColumn + " asc, " + idColumn + " asc";
+            case TIMESTAMP_DESC:
+                return timestampColumn + " desc, " + idColumn + " desc";
+            default:
+                throw new RuntimeException("Not implemented for " + order);
+        }
+    }
+
+    /**
+     * Build WHERE condition selecting events strictly after (timestamp, id) in given order, appending bind args.
+     *
+     * Condition on (timestamp, id) is written with leading range on timestamp, so SQLite can seek index on
+     * (queue_id, timestamp, event_id) instead of scanning from the beginning of queue.
+     */
+    private static String keysetToSQL(EventOrder.Order order, long afterTimestamp, int afterId, ArrayList<String> args) {
+        String id = Integer.toString(afterId);
+
+        if (order == null) {
+            args.add(id);
+            return "queue_event.event_id > ?";
+        }
+
+        switch (order) {
+            case ID_ASC:
+                args.add(id);
+                return "queue_event.event_id > ?";
+            case ID_DESC:
+                args.add(id);
+                return "queue_event.event_id < ?";
+            case TIMESTAMP_ASC:
+            case TIMESTAMP_DESC: {
+                String timestamp = Long.toString(afterTimestamp);
+                String op = (order == EventOrder.Order.TIMESTAMP_ASC ? ">" : "<");
+                args.add(timestamp);
+                args.add(timestamp);
+                args.add(id);
+                return (
+                    "queue_event.timestamp " + op + "= ? and " +
+                    "(queue_event.timestamp " + op + " ? or queue_event.event_id " + op + " ?)"
                 );
             }
+            default:
+                throw new RuntimeException("Not implemented for " + order);
+        }
+    }
 
-            if (cursor == null) {
-                return new Event[0];
-            }
+    /**
+     * Fold (event_id, timestamp, comment, tag_id, tag_name) rows into hydrated events.
+     *
+     * !synchronized
+     */
+    private ArrayList<Event> readEvents(Cursor cursor) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        ArrayList<Tag> tags = new ArrayList<Tag>();
+
+        int eventId = 0;
+        long timestamp = 0;
+        String comment = null;
+        boolean hasEvent = false;
+
+        while (cursor.moveToNext()) {
+            int rowEventId = cursor.getInt(0);
+
+            if (!hasEvent || rowEventId != eventId) {
+                if (hasEvent) {
+                    events.add(EventImpl.obtain(this.db, eventId, timestamp, comment, tags.toArray(new Tag[0])));
+                    tags.clear();
+                }
 
-            Event[] events = new Event[cursor.getCount()];
+                hasEvent = true;
+                eventId = rowEventId;
+                timestamp = cursor.getLong(1);
+                comment = cursor.getString(2);
+            }
 
-            int index = 0;
-            while (cursor.moveToNext()) {
-                events[index++] = new EventImpl(this.db, cursor.getInt(0));
+            if (!cursor.isNull(3)) {
+                tags.add(TagImpl.obtain(this.db, cursor.getInt(3), cursor.getString(4)));
             }
-            cursor.close();
+        }
 
-            return events;
+        if (hasEvent) {
+            events.add(EventImpl.obtain(this.db, eventId, timestamp, comment, tags.toArray(new Tag[0])));
         }
+
+        return events;
     }
 
     @Override
     public int getEventCount() {
-        synchronized (this.db) {
-            Cursor cursor = db.query(
-                "queue_event",
-                new String[] { "count(*)" },
-                "queue_id = ?",
-                new String[] { Integer.toString(this.getId()) },
-                null,
-                null,
-                null
-            );
-
-            return Utils.getIntAndClose(cursor, 0);
-        }
+        if (this.hydrated)
+            return this.cachedEventCount;
+
+        return (int) this.statements.queryLong("select event_count from queue_stat where queue_id = ?", 0, this.getId());
     }
 
     /**
@@ -172,17 +344,12 @@ public class QueueImpl implements Queue {
      */
     protected boolean hasEvent(Event event) {
         synchronized (this.db) {
-            Cursor cursor = db.query(
-                "queue_event",
-                new String[] { "1" },
-                "queue_id = ? AND event_id = ?",
-                new String[] { Integer.toString(this.getId()), Integer.toString(event.getId()) },
-                null,
-                null,
-                null
-            );
-
-            return Utils.findResultAndClose(cursor);
+            return this.statements.queryLong(
+                "select 1 from queue_event where queue_id = ? and event_id = ?",
+                0,
+                this.getId(),
+                event.getId()
+            ) != 0;
         }
     }
 
@@ -194,10 +361,13 @@ public class QueueImpl implements Queue {
             if (this.hasEvent(event)) return;
 
             try {
-                ContentValues cv = new ContentValues();
-                cv.put("queue_id", this.getId());
-                cv.put("event_id", event.getId());
-                db.insertOrThrow("queue_event", null, cv);
+                this.statements.insert(
+                    "insert into queue_event (queue_id, event_id) values (?, ?)",
+                    this.getId(),
+                    event.getId()
+                );
+
+                this.cachedEventCount += 1;
             } catch (SQLiteException e) {
                 Log.w(TAG, e);
             }
@@ -209,14 +379,16 @@ public class QueueImpl implements Queue {
         synchronized (this.db) {
             if (event == null) return;
 
-            if (this.hasEvent(event)) return;
+            if (!this.hasEvent(event)) return;
 
             try {
-                db.delete(
-                    "queue_event",
-                    "queue_id = ? AND event_id = ?",
-                    new String[] { Integer.toString(this.getId()), Integer.toString(event.getId()) }
+                int removed = this.statements.delete(
+                    "delete from queue_event where queue_id = ? and event_id = ?",
+                    this.getId(),
+                    event.getId()
                 );
+
+                if (removed > 0) this.cachedEventCount -= 1;
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
             }
@@ -225,60 +397,25 @@ public class QueueImpl implements Queue {
 
     @Override
     public TagStat[] getGlobalTags() {
-        synchronized (this.db) {
-            Cursor cursor = db.rawQuery(
-                "select" +
-                "    tag_id,\n" +
-                "    count(*) as cnt\n" +
-                "from (\n" +
-                "    select\n" +
-                "        event_id,\n" +
-                "        tag_id\n" +
-                "    from (\n" +
-                "        select\n" +
-                "            event_tag.event_id as event_id,\n" +
-                "            event_tag.tag_id as tag_id\n" +
-                "        from (\n" +
-                "            select\n" +
-                "                event_id\n" +
-                "            from\n" +
-                "                queue_event\n" +
-                "            where\n" +
-                "                queue_id = ?\n" +
-                "        ) as queue_event_temp\n" +
-                "        inner join\n" +
-                "            event_tag\n" +
-                "        on\n" +
-                "            (event_tag.event_id = queue_event_temp.event_id)\n" +
-                "    )\n" +
-                "    group by\n" +
-                "        event_id,\n" +
-                "        tag_id\n" +
-                ")\n" +
-                "group by\n" +
-                "    tag_id\n" +
-                "order by\n" +
-                "    cnt desc",
-                new String[] { Integer.toString(this.getId()) }
-            );
-
-            if (cursor == null) {
-                return new TagStat[0];
-            }
+        Cursor cursor = db.rawQuery(GLOBAL_TAGS_QUERY, new String[] { Integer.toString(this.getId()) });
 
-            TagStat[] tags = new TagStat[cursor.getCount()];
+        if (cursor == null) {
+            return new TagStat[0];
+        }
 
-            int index = 0;
-            while (cursor.moveToNext()) {
-                TagStat tagStat = new TagStat();
-                tags[index++] = tagStat;
+        TagStat[] tags = new TagStat[cursor.getCount()];
 
-                tagStat.tag = new TagImpl(this.db, cursor.getInt(0));
-                tagStat.count = cursor.getInt(1);
-            }
+        int index = 0;
+        while (cursor.moveToNext()) {
+            TagStat tagStat = new TagStat();
+            tags[index++] = tagStat;
 
-            return tags;
+            tagStat.tag = TagImpl.obtain(this.db, cursor.getInt(0), cursor.getString(1));
+            tagStat.count = cursor.getInt(2);
         }
+        cursor.close();
+
+        return tags;
     }
 
     @NonNull
@@ -25,60 +25,45 @@
 
 package art.pegasko.yeeemp.impl;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
-import art.pegasko.yeeemp.base.Event;
-import art.pegasko.yeeemp.base.EventOrder;
 import art.pegasko.yeeemp.base.Queue;
 import art.pegasko.yeeemp.base.QueueMaker;
 import art.pegasko.yeeemp.base.QueueOrder;
 
 public class QueueMakerImpl implements QueueMaker {
-    public static final String TAG = EventMakerImpl.class.getSimpleName();
+    public static final String TAG = QueueMakerImpl.class.getSimpleName();
 
     private SQLiteDatabase db;
+    private Statements statements;
 
     public QueueMakerImpl(SQLiteDatabase db) {
         this.db = db;
+        this.statements = Statements.of(db);
     }
 
     @Override
     public Queue getById(int id) {
-        synchronized (this.db) {
-            try {
-                Cursor cursor = db.query(
-                    "queue",
-                    new String[] { "1" },
-                    "id = ?",
-                    new String[] { Integer.toString(id) },
-                    null,
-                    null,
-                    null
-                );
-
-                if (Utils.findResultAndClose(cursor)) {
-                    return new QueueImpl(this.db, id);
-                }
-
-            } catch (SQLiteException e) {
-                Log.wtf(TAG, e);
+        try {
+            if (this.statements.queryLong("select 1 from queue where id = ?", 0, id) != 0) {
+                return new QueueImpl(this.db, id);
             }
 
-            return null;
+        } catch (SQLiteException e) {
+            Log.wtf(TAG, e);
         }
+
+        return null;
     }
 
     @Override
     public Queue create() {
         synchronized (this.db) {
             try {
-                ContentValues cv = new ContentValues();
-                cv.put("id", (Integer) null);
-                long rowId = db.insertOrThrow("queue", null, cv);
+                long rowId = this.statements.insert("insert into queue (id) values (null)");
                 return new QueueImpl(this.db, (int) rowId);
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
@@ -88,68 +73,77 @@ public class QueueMakerImpl implements QueueMaker {
         }
     }
 
+    /**
+     * Build query of queues with their event counts, counts are looked up by queue_stat primary key
+     */
+    static String listQuery(QueueOrder.Order order) {
+        return (
+            "select\n" +
+            "    queue.id,\n" +
+            "    queue.name,\n" +
+            "    ifnull(queue_stat.event_count, 0)\n" +
+            "from\n" +
+            "    queue\n" +
+            "left join\n" +
+            "    queue_stat\n" +
+            "on\n" +
+            "    queue.id = queue_stat.queue_id\n" +
+            ( order == QueueOrder.Order.ID ?
+                "order by\n    queue.rowid" :
+            ( order == QueueOrder.Order.NAME ?
+                "order by\n    queue.name" :
+                ""
+            ))
+        );
+    }
+
     @Override
     public Queue[] list(QueueOrder.Order order) {
-        synchronized (this.db) {
-            Cursor cursor = db.query(
-                "queue",
-                new String[] { "id" },
-                null,
-                null,
-                null,
-                null,
-                ( order == QueueOrder.Order.ID ?
-                    "rowid" :
-                ( order == QueueOrder.Order.NAME ?
-                    "name" :
-                    null
-                ))
-            );
-
-            if (cursor == null) {
-                return new Queue[0];
-            }
+        Cursor cursor = db.rawQuery(listQuery(order), null);
 
-            Queue[] queues = new Queue[cursor.getCount()];
+        if (cursor == null) {
+            return new Queue[0];
+        }
 
-            int index = 0;
-            while (cursor.moveToNext()) {
-                queues[index++] = new QueueImpl(this.db, cursor.getInt(0));
-            }
-            cursor.close();
+        Queue[] queues = new Queue[cursor.getCount()];
 
-            return queues;
+        int index = 0;
+        while (cursor.moveToNext()) {
+            queues[index++] = new QueueImpl(this.db, cursor.getInt(0), cursor.getString(1), cursor.getInt(2));
         }
+        cursor.close();
+
+        return queues;
     }
 
+    /**
+     * Delete queue with all its events in single transaction.
+     *
+     * Queue is marked stale first, so counters are not updated per deleted event. Links, tags, counters and stale
+     * mark of queue are deleted by cascade.
+     */
     @Override
     public void delete(Queue queue) {
         synchronized (this.db) {
-
-            // Drop events
+            db.beginTransaction();
             try {
-                // TODO: Foreign key for cascade delete
-                for (Event event : queue.getEvents(EventOrder.Order.ID_DESC)) {
-                    db.delete("event", "id = ?", new String[] { Integer.toString(event.getId()) });
-                }
-            } catch (SQLiteException e) {
-                Log.wtf(TAG, e);
-                return;
-            }
+                this.statements.insert("insert or ignore into stale_queue (queue_id) values (?)", queue.getId());
+                this.statements.delete(
+                    "delete from event where id in (select event_id from queue_event where queue_id = ?)",
+                    queue.getId()
+                );
+                this.statements.delete("delete from queue where id = ?", queue.getId());
 
-            // Drop queue <-> event
-            try {
-                db.delete("queue_event", "queue_id = ?", new String[] { Integer.toString(queue.getId()) });
+                db.setTransactionSuccessful();
             } catch (SQLiteException e) {
                 Log.wtf(TAG, e);
+            } finally {
+                db.endTransaction();
             }
 
-            // Drop queue
-            try {
-                db.delete("queue", "id = ?", new String[] { Integer.toString(queue.getId()) });
-            } catch (SQLiteException e) {
-                Log.wtf(TAG, e);
-            }
+            // Events and tags of queue are gone
+            EventImpl.clearCache();
+            TagImpl.clearCache();
         }
     }
 }
@@ -0,0 +1,210 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Registry of compiled statements of single database.
+ *
+ * Inserts, updates and deletes reuse one statement per SQL text. Statement object only holds SQL and bindings,
+ * native statement is prepared and cached by each pooled connection separately, so it is bound and executed under
+ * database monitor and then statement lock, in that order. Point lookups compile statement per call and take no
+ * lock: with single connection (rollback journal) lookup waiting for connection must not hold anything writer
+ * inside transaction may need.
+ */
+class Statements {
+    public static final String TAG = Statements.class.getSimpleName();
+
+    // Registry per database, keys are weak to not hold replaced databases
+    private static final Map<SQLiteDatabase, Statements> registry = new WeakHashMap<SQLiteDatabase, Statements>();
+
+    private final SQLiteDatabase db;
+    private final HashMap<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
+    private Statements(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Get registry of database
+     */
+    static synchronized Statements of(SQLiteDatabase db) {
+        Statements statements = registry.get(db);
+        if (statements == null) {
+            statements = new Statements(db);
+            registry.put(db, statements);
+        }
+
+        return statements;
+    }
+
+    /**
+     * Close all statements of database, must be called before database is closed
+     */
+    static void release(SQLiteDatabase db) {
+        Statements statements;
+        synchronized (Statements.class) {
+            statements = registry.remove(db);
+        }
+
+        if (statements != null)
+            statements.close();
+    }
+
+    private synchronized SQLiteStatement get(String sql) {
+        SQLiteStatement statement = this.statements.get(sql);
+        if (statement == null) {
+            statement = this.db.compileStatement(sql);
+            this.statements.put(sql, statement);
+        }
+
+        return statement;
+    }
+
+    private synchronized void close() {
+        for (SQLiteStatement statement : this.statements.values()) {
+            synchronized (statement) {
+                statement.close();
+            }
+        }
+        this.statements.clear();
+    }
+
+    private static void bindLongs(SQLiteStatement statement, long[] args) {
+        statement.clearBindings();
+        for (int index = 0; index < args.length; ++index) {
+            statement.bindLong(index + 1, args[index]);
+        }
+    }
+
+    private static void bindObjects(SQLiteStatement statement, Object[] args) {
+        statement.clearBindings();
+        for (int index = 0; index < args.length; ++index) {
+            Object arg = args[index];
+            if (arg == null) {
+                statement.bindNull(index + 1);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                statement.bindLong(index + 1, ((Number) arg).longValue());
+            } else {
+                statement.bindString(index + 1, arg.toString());
+            }
+        }
+    }
+
+    /**
+     * @return first column of first row or `def` if no rows
+     */
+    long queryLong(String sql, long def, long... args) {
+        SQLiteStatement statement = this.db.compileStatement(sql);
+        try {
+            bindLongs(statement, args);
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return def;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Same as {@link #queryLong(String, long, long...)} for arguments of mixed types
+     *
+     * @return first column of first row or `def` if no rows
+     */
+    long queryLongValues(String sql, long def, Object... args) {
+        SQLiteStatement statement = this.db.compileStatement(sql);
+        try {
+            bindObjects(statement, args);
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return def;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return first column of first row or `def` if no rows or value is null
+     */
+    String queryString(String sql, String def, long... args) {
+        SQLiteStatement statement = this.db.compileStatement(sql);
+        try {
+            bindLongs(statement, args);
+            String result = statement.simpleQueryForString();
+            return result == null ? def : result;
+        } catch (SQLiteDoneException e) {
+            return def;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return row id of inserted row
+     */
+    long insert(String sql, Object... args) {
+        synchronized (this.db) {
+            SQLiteStatement statement = this.get(sql);
+            synchronized (statement) {
+                bindObjects(statement, args);
+                return statement.executeInsert();
+            }
+        }
+    }
+
+    /**
+     * @return number of affected rows
+     */
+    int update(String sql, Object... args) {
+        synchronized (this.db) {
+            SQLiteStatement statement = this.get(sql);
+            synchronized (statement) {
+                bindObjects(statement, args);
+                return statement.executeUpdateDelete();
+            }
+        }
+    }
+
+    /**
+     * @return number of affected rows
+     */
+    int delete(String sql, long... args) {
+        synchronized (this.db) {
+            SQLiteStatement statement = this.get(sql);
+            synchronized (statement) {
+                bindLongs(statement, args);
+                return statement.executeUpdateDelete();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+/**
+ * SQLite connection tuning applied when database is opened
+ */
+public class StorageProfile {
+    /**
+     * WAL journal with relaxed fsync, readers do not wait for writer to commit
+     */
+    public static final StorageProfile DEFAULT = new StorageProfile(true, "NORMAL");
+
+    /**
+     * Rollback journal with full fsync on every commit, as SQLite defaults
+     */
+    public static final StorageProfile SAFE = new StorageProfile(false, "FULL");
+
+    /* Use write-ahead log instead of rollback journal */
+    public final boolean writeAheadLogging;
+
+    /* Value for PRAGMA synchronous: OFF, NORMAL, FULL or EXTRA */
+    public final String synchronous;
+
+    public StorageProfile(boolean writeAheadLogging, String synchronous) {
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+    }
+}
@@ -25,7 +25,6 @@
 
 package art.pegasko.yeeemp.impl;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.NonNull;
@@ -36,13 +35,61 @@ import art.pegasko.yeeemp.base.Queue;
 public class TagImpl implements Tag {
     public static final String TAG = TagImpl.class.getSimpleName();
 
+    /* Max number of tag handles kept by identity map */
+    private static final int CACHE_CAPACITY = 1024;
+
+    private static final IdentityMap<TagImpl> cache = new IdentityMap<TagImpl>(CACHE_CAPACITY);
+
     private final SQLiteDatabase db;
+    private final Statements statements;
     private final int id;
-    private String _cached_name;
+    private volatile String _cached_name;
 
     protected TagImpl(SQLiteDatabase db, int id) {
         this.db = db;
+        this.statements = Statements.of(db);
+        this.id = id;
+    }
+
+    /**
+     * Construct tag with name already known from query
+     */
+    protected TagImpl(SQLiteDatabase db, int id, String name) {
+        this.db = db;
+        this.statements = Statements.of(db);
         this.id = id;
+        this._cached_name = name;
+    }
+
+    /**
+     * Get shared handle for tag id, creating it if missing
+     */
+    static TagImpl obtain(SQLiteDatabase db, int id) {
+        return obtain(db, id, null);
+    }
+
+    /**
+     * Get shared handle for tag id, creating it if missing.
+     *
+     * @param name tag name if already known from query or null
+     */
+    static TagImpl obtain(SQLiteDatabase db, int id, String name) {
+        TagImpl tag = cache.get(id);
+        if (tag == null || tag.db != db) {
+            tag = new TagImpl(db, id, name);
+            cache.put(id, tag);
+        } else if (name != null && tag._cached_name == null) {
+            tag._cached_name = name;
+        }
+
+        return tag;
+    }
+
+    /**
+     * Drop all shared handles, called when tags are deleted or database is replaced
+     */
+    static void clearCache() {
+        cache.clear();
     }
 
     @Override
@@ -52,27 +99,15 @@ public class TagImpl implements Tag {
 
     @Override
     public String getName() {
-        synchronized (this.db) {
-            if (this._cached_name != null)
-                return this._cached_name;
-
-            Cursor cursor = db.query(
-                "tag",
-                new String[] { "name" },
-                "id = ?",
-                new String[] { Integer.toString(this.getId()) },
-                null,
-                null,
-                null
-            );
-
-            String result = Utils.getStringAndClose(cursor, null);
-            if (result != null) {
-                return this._cached_name = result;
-            }
-
-            return null;
+        if (this._cached_name != null)
+            return this._cached_name;
+
+        String result = this.statements.queryString("select name from tag where id = ?", null, this.getId());
+        if (result != null) {
+            return this._cached_name = result;
         }
+
+        return null;
     }
 
     @NonNull
@@ -25,12 +25,15 @@
 
 package art.pegasko.yeeemp.impl;
 
-import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
 import art.pegasko.yeeemp.base.Queue;
 import art.pegasko.yeeemp.base.Tag;
 import art.pegasko.yeeemp.base.TagMaker;
@@ -38,28 +41,33 @@ import art.pegasko.yeeemp.base.TagMaker;
 public class TagMakerImpl implements TagMaker {
     public static final String TAG = TagMakerImpl.class.getSimpleName();
 
+    /* Max number of names bound into single IN (...) lookup, below SQLite variables limit */
+    private static final int RESOLVE_CHUNK_SIZE = 500;
+
+    // Queries of existing tags, both read tag__queue_id_name
+    static final String EXISTING_TAG_QUERY = "select id from tag where queue_id = ? and name = ?";
+    private static final String RESOLVE_QUERY_PREFIX = "select id, name from tag where queue_id = ? and name in (";
+    private static final String RESOLVE_QUERY_SUFFIX = ") order by id asc";
+
     private SQLiteDatabase db;
+    private Statements statements;
 
     public TagMakerImpl(SQLiteDatabase db) {
         this.db = db;
+        this.statements = Statements.of(db);
     }
 
     /* !synchronized */
     private Tag getExisting(Queue queue, String name) {
         try {
-            Cursor cursor = db.query(
-                "tag",
-                new String[] { "id", "name" },
-                "queue_id = ? AND name = ?",
-                new String[] { Integer.toString(queue.getId()), name },
-                null,
-                null,
-                null
+            int id = (int) this.statements.queryLongValues(
+                EXISTING_TAG_QUERY,
+                -1,
+                queue.getId(),
+                name
             );
-
-            int id = Utils.getIntAndClose(cursor, -1);
             if (id != -1) {
-                return new TagImpl(
+                return TagImpl.obtain(
                     db,
                     id
                 );
@@ -74,10 +82,7 @@ public class TagMakerImpl implements TagMaker {
     /* !synchronized */
     private boolean create(Queue queue, String name) {
         try {
-            ContentValues cv = new ContentValues();
-            cv.put("queue_id", queue.getId());
-            cv.put("name", name);
-            db.insertOrThrow("tag", null, cv);
+            this.statements.insert("insert into tag (queue_id, name) values (?, ?)", queue.getId(), name);
         } catch (SQLiteException e) {
             Log.wtf(TAG, e);
             return false;
@@ -102,4 +107,78 @@ public class TagMakerImpl implements TagMaker {
             return getExisting(queue, name);
         }
     }
+
+    /**
+     * Build lookup of tags of queue with given number of names
+     */
+    static String resolveQuery(int names) {
+        StringBuilder sb = new StringBuilder(RESOLVE_QUERY_PREFIX);
+        for (int index = 0; index < names; ++index) {
+            sb.append(index == 0 ? "?" : ", ?");
+        }
+        sb.append(RESOLVE_QUERY_SUFFIX);
+        return sb.toString();
+    }
+
+    /**
+     * Resolve tag names into tag ids within queue, creating missing tags.
+     *
+     * Names are normalized same as in {@link #getOrCreateInQueue(Queue, String)}, empty names are skipped and
+     * duplicates are merged. Existing tags are looked up with batched queries, so caller should wrap this into
+     * transaction to batch inserts of new tags as well.
+     *
+     * !synchronized
+     *
+     * @return ids of tags in order of first occurrence of their names
+     */
+    static int[] resolveInQueue(SQLiteDatabase db, int queueId, String[] names) {
+        LinkedHashSet<String> normalizedNames = new LinkedHashSet<String>();
+        for (String name : names) {
+            name = name.trim().toLowerCase();
+            if (!name.isEmpty())
+                normalizedNames.add(name);
+        }
+
+        ArrayList<String> pending = new ArrayList<String>(normalizedNames);
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+        // Lookup existing
+        for (int offset = 0; offset < pending.size(); offset += RESOLVE_CHUNK_SIZE) {
+            int end = Math.min(offset + RESOLVE_CHUNK_SIZE, pending.size());
+
+            String[] args = new String[end - offset + 1];
+            args[0] = Integer.toString(queueId);
+            for (int index = offset; index < end; ++index) {
+                args[index - offset + 1] = pending.get(index);
+            }
+
+            Cursor cursor = db.rawQuery(resolveQuery(end - offset), args);
+
+            if (cursor == null)
+                continue;
+
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(1);
+                if (!ids.containsKey(name))
+                    ids.put(name, cursor.getInt(0));
+            }
+            cursor.close();
+        }
+
+        // Create missing
+        Statements statements = Statements.of(db);
+        for (String name : pending) {
+            if (ids.containsKey(name))
+                continue;
+
+            ids.put(name, (int) statements.insert("insert into tag (queue_id, name) values (?, ?)", queueId, name));
+        }
+
+        int[] result = new int[pending.size()];
+        for (int index = 0; index < result.length; ++index) {
+            result[index] = ids.get(pending.get(index));
+        }
+
+        return result;
+    }
 }
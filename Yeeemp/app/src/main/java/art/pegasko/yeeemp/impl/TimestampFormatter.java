@@ -0,0 +1,237 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formatter of timestamps as `<day><separator>HH<time separator>mm<time separator>ss` in default time zone and
+ * locale.
+ *
+ * Thread safe, every thread keeps its own formatter and caches:
+ *   - day bucket with prebuilt day prefix, timestamps within the same day only format time of day;
+ *   - minute bucket with prebuilt day and minute prefix;
+ *   - small memo of recently formatted timestamps.
+ *
+ * Days with time zone offset change (DST transitions) or without local midnight and locales with non-ASCII digits are not cached and are
+ * formatted in full.
+ */
+public class TimestampFormatter {
+    public static final String TAG = TimestampFormatter.class.getSimpleName();
+
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    /* Time zone is rechecked not more often than this */
+    private static final long ZONE_CHECK_INTERVAL_MS = 1000;
+
+    /* Memo size, power of two */
+    private static final int MEMO_SIZE = 16;
+
+    private final String dayPattern;
+    private final String dayTimeSeparator;
+    private final String timeSeparator;
+    private final ThreadLocal<State> state;
+
+    /**
+     * Per thread formatter and caches
+     */
+    private class State {
+        TimeZone zone;
+        Locale locale;
+        boolean asciiDigits;
+        long zoneCheckedAt;
+
+        Calendar calendar;
+        SimpleDateFormat dayFormat;
+        SimpleDateFormat fullFormat;
+
+        // Day bucket [dayStart, dayEnd), empty when dayStart == dayEnd
+        long dayStart;
+        long dayEnd;
+        String dayPrefix;
+
+        // Minute bucket [minuteStart, minuteStart + MINUTE_MS), valid when minutePrefix is set
+        long minuteStart;
+        String minutePrefix;
+
+        final long[] memoKeys = new long[MEMO_SIZE];
+        final String[] memoValues = new String[MEMO_SIZE];
+
+        State() {
+            this.setZone(TimeZone.getDefault(), Locale.getDefault());
+        }
+
+        void setZone(TimeZone zone, Locale locale) {
+            this.zone = zone;
+            this.locale = locale;
+            this.asciiDigits = DecimalFormatSymbols.getInstance(locale).getZeroDigit() == '0';
+            this.zoneCheckedAt = System.currentTimeMillis();
+
+            this.calendar = Calendar.getInstance(zone, locale);
+            this.dayFormat = new SimpleDateFormat(TimestampFormatter.this.dayPattern, locale);
+            this.dayFormat.setTimeZone(zone);
+            this.fullFormat = new SimpleDateFormat(TimestampFormatter.this.getPattern(), locale);
+            this.fullFormat.setTimeZone(zone);
+
+            this.dayStart = this.dayEnd = 0;
+            this.dayPrefix = null;
+            this.minutePrefix = null;
+            Arrays.fill(this.memoValues, null);
+        }
+
+        void checkZone() {
+            long now = System.currentTimeMillis();
+            if (now - this.zoneCheckedAt < ZONE_CHECK_INTERVAL_MS)
+                return;
+
+            TimeZone zone = TimeZone.getDefault();
+            Locale locale = Locale.getDefault();
+            if (zone.getID().equals(this.zone.getID()) && zone.hasSameRules(this.zone) && locale.equals(this.locale)) {
+                this.zoneCheckedAt = now;
+                return;
+            }
+
+            this.setZone(zone, locale);
+        }
+
+        /**
+         * Move day bucket to day of timestamp
+         *
+         * @return false if day can not be cached
+         */
+        boolean loadDay(long timestamp) {
+            Calendar calendar = this.calendar;
+            calendar.setTimeInMillis(timestamp);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            long start = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            long end = calendar.getTimeInMillis();
+
+            this.minutePrefix = null;
+
+            // Day must start exactly at local midnight, which is not the case when midnight is skipped by transition
+            long localStart = start + this.zone.getOffset(start);
+            if (
+                !this.asciiDigits
+                || end - start != DAY_MS
+                || this.zone.getOffset(start) != this.zone.getOffset(end - 1)
+                || (localStart % DAY_MS + DAY_MS) % DAY_MS != 0
+            ) {
+                this.dayStart = this.dayEnd = 0;
+                this.dayPrefix = null;
+                return false;
+            }
+
+            this.dayStart = start;
+            this.dayEnd = end;
+            this.dayPrefix = this.dayFormat.format(new Date(start)) + TimestampFormatter.this.dayTimeSeparator;
+            return true;
+        }
+    }
+
+    /**
+     * @param dayPattern {@link SimpleDateFormat} pattern of day part
+     * @param dayTimeSeparator literal between day and time of day
+     * @param timeSeparator literal between hours, minutes and seconds
+     */
+    public TimestampFormatter(String dayPattern, String dayTimeSeparator, String timeSeparator) {
+        this.dayPattern = dayPattern;
+        this.dayTimeSeparator = dayTimeSeparator;
+        this.timeSeparator = timeSeparator;
+        this.state = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State();
+            }
+        };
+    }
+
+    /**
+     * @return equivalent {@link SimpleDateFormat} pattern
+     */
+    public String getPattern() {
+        return (
+            this.dayPattern
+            + "'" + this.dayTimeSeparator + "'"
+            + "HH'" + this.timeSeparator + "'mm'" + this.timeSeparator + "'ss"
+        );
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, long value) {
+        sb.append((char) ('0' + value / 10));
+        sb.append((char) ('0' + value % 10));
+    }
+
+    public String format(long timestamp) {
+        State state = this.state.get();
+        state.checkZone();
+
+        int slot = (int) (timestamp ^ (timestamp >>> 32)) & (MEMO_SIZE - 1);
+        if (state.memoValues[slot] != null && state.memoKeys[slot] == timestamp)
+            return state.memoValues[slot];
+
+        String result;
+        if (state.minutePrefix != null && timestamp >= state.minuteStart && timestamp < state.minuteStart + MINUTE_MS) {
+            StringBuilder sb = new StringBuilder(state.minutePrefix.length() + 3);
+            sb.append(state.minutePrefix);
+            sb.append(this.timeSeparator);
+            appendTwoDigits(sb, (timestamp - state.minuteStart) / 1000);
+            result = sb.toString();
+        } else if ((timestamp >= state.dayStart && timestamp < state.dayEnd) || state.loadDay(timestamp)) {
+            long time = timestamp - state.dayStart;
+            long minuteStart = timestamp - time % MINUTE_MS;
+
+            StringBuilder sb = new StringBuilder(state.dayPrefix.length() + 8);
+            sb.append(state.dayPrefix);
+            appendTwoDigits(sb, time / HOUR_MS);
+            sb.append(this.timeSeparator);
+            appendTwoDigits(sb, time % HOUR_MS / MINUTE_MS);
+            state.minuteStart = minuteStart;
+            state.minutePrefix = sb.toString();
+
+            sb.append(this.timeSeparator);
+            appendTwoDigits(sb, time % MINUTE_MS / 1000);
+            result = sb.toString();
+        } else {
+            result = state.fullFormat.format(new Date(timestamp));
+        }
+
+        state.memoKeys[slot] = timestamp;
+        state.memoValues[slot] = result;
+        return result;
+    }
+}
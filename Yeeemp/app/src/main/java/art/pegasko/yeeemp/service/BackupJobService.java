@@ -0,0 +1,99 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import art.pegasko.yeeemp.impl.Backup;
+import art.pegasko.yeeemp.impl.Init;
+
+/**
+ * Runs incremental {@link Backup} every hour
+ */
+public class BackupJobService extends JobService {
+    public static final String TAG = BackupJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 2;
+    private static final long JOB_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Schedule periodic backup unless already scheduled
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null)
+            return;
+
+        // Scheduling again would restart period
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID)
+                return;
+        }
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, BackupJobService.class))
+            .setPeriodic(JOB_PERIOD_MS)
+            .build();
+
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS)
+            Log.w(TAG, "Failed to schedule backup");
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        new Thread(() -> {
+            boolean retry = false;
+            try {
+                Init.initDB(getApplicationContext());
+                Backup.run(getApplicationContext());
+            } catch (IOException e) {
+                Log.w(TAG, e);
+                retry = true;
+            } catch (RuntimeException e) {
+                // Database may be closed under running backup when it is replaced
+                Log.w(TAG, e);
+            } finally {
+                jobFinished(params, retry);
+            }
+        }, TAG).start();
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Backup is short and holds database monitor, let it finish, next run continues chain
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+import art.pegasko.yeeemp.impl.Init;
+import art.pegasko.yeeemp.impl.Maintenance;
+
+/**
+ * Runs database {@link Maintenance} when device is idle and charging
+ */
+public class MaintenanceJobService extends JobService {
+    public static final String TAG = MaintenanceJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+    private static final long JOB_PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+
+    private volatile boolean stopped;
+
+    /**
+     * Schedule periodic maintenance unless already scheduled
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null)
+            return;
+
+        // Scheduling again would restart period
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID)
+                return;
+        }
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+            .setRequiresDeviceIdle(true)
+            .setRequiresCharging(true)
+            .setPeriodic(JOB_PERIOD_MS)
+            .build();
+
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS)
+            Log.w(TAG, "Failed to schedule maintenance");
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        this.stopped = false;
+
+        new Thread(() -> {
+            try {
+                Init.initDB(getApplicationContext());
+                Maintenance.run(() -> this.stopped);
+            } catch (RuntimeException e) {
+                // Database may be closed under running maintenance when it is replaced
+                Log.w(TAG, e);
+            } finally {
+                jobFinished(params, false);
+            }
+        }, TAG).start();
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Device left idle, remaining work is done on next run
+        this.stopped = true;
+        return false;
+    }
+}
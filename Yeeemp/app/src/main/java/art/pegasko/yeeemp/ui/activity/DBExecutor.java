@@ -0,0 +1,155 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.ui.activity;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * App-wide background executor for database loads.
+ *
+ * Loads are submitted with a key (usually the requesting adapter). New load for the key supersedes all pending
+ * loads for the same key: superseded loads that did not start yet are skipped and results of ones that already
+ * ran are dropped, so only the latest result is published on the main thread. Failure of the latest load is passed
+ * to its `fail` callback instead, so callers can always reset their loading state.
+ *
+ * One-shot jobs (export, import, merge, restore) run on separate executor, one at a time: they are never skipped or
+ * superseded, their result or failure is always delivered, and long job does not block loads.
+ */
+class DBExecutor {
+    public static final String TAG = DBExecutor.class.getSimpleName();
+
+    interface Load<T> {
+        T load();
+    }
+
+    interface Publish<T> {
+        void publish(T result);
+    }
+
+    interface Fail {
+        void fail(RuntimeException error);
+    }
+
+    interface Job<T> {
+        T run() throws Exception;
+    }
+
+    interface Done<T> {
+        /**
+         * @param error failure of job or null if it succeeded
+         */
+        void done(T result, Exception error);
+    }
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final ExecutorService jobExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Latest submitted generation per key, keys are weak to not hold finished adapters
+    private static final Map<Object, Integer> generations = new WeakHashMap<Object, Integer>();
+
+    private static synchronized int nextGeneration(Object key) {
+        Integer generation = generations.get(key);
+        generation = (generation == null ? 0 : generation + 1);
+        generations.put(key, generation);
+        return generation;
+    }
+
+    private static synchronized boolean isLatest(Object key, int generation) {
+        Integer latest = generations.get(key);
+        return latest != null && latest == generation;
+    }
+
+    /**
+     * Run `load` in background and pass its result to `publish` on main thread unless superseded
+     */
+    public static <T> void submit(Object key, Load<T> load, Publish<T> publish) {
+        submit(key, load, publish, (RuntimeException error) -> {});
+    }
+
+    /**
+     * Run `load` in background and pass its result to `publish` or its failure to `fail` on main thread unless
+     * superseded
+     */
+    public static <T> void submit(Object key, Load<T> load, Publish<T> publish, Fail fail) {
+        int generation = nextGeneration(key);
+        executor.execute(() -> {
+            if (!isLatest(key, generation))
+                return;
+
+            T result;
+            try {
+                result = load.load();
+            } catch (RuntimeException e) {
+                // Database may be closed under running load when it is replaced
+                Log.w(TAG, e);
+                handler.post(() -> {
+                    if (isLatest(key, generation))
+                        fail.fail(e);
+                });
+                return;
+            }
+
+            handler.post(() -> {
+                if (isLatest(key, generation))
+                    publish.publish(result);
+            });
+        });
+    }
+
+    /**
+     * Run one-shot `job` in background and pass its result or failure to `done` on main thread
+     */
+    public static <T> void runJob(Job<T> job, Done<T> done) {
+        jobExecutor.execute(() -> {
+            T result = null;
+            Exception error = null;
+            try {
+                result = job.run();
+            } catch (Exception e) {
+                error = e;
+            }
+
+            T jobResult = result;
+            Exception jobError = error;
+            handler.post(() -> done.done(jobResult, jobError));
+        });
+    }
+
+    /**
+     * Drop all pending loads for key
+     */
+    public static void cancel(Object key) {
+        nextGeneration(key);
+    }
+}
@@ -47,6 +47,7 @@ import android.widget.DatePicker;
 import android.widget.MultiAutoCompleteTextView;
 import android.widget.TextView;
 import android.widget.TimePicker;
+import android.widget.Toast;
 
 import com.google.android.material.snackbar.Snackbar;
 
@@ -232,22 +233,29 @@ public class EventEditActivity extends AppCompatActivity {
                 this.eventContainer.tags.add(tag);
             }
 
-            // Fill event
-            boolean hasEvent = this.event != null;
-            if (this.event == null) this.event = Wrapper.getEventMaker().create();
-
-            this.event.setTimestamp(this.eventContainer.timestamp);
-            this.event.removeTags();
-            for (String tag : this.eventContainer.tags) {
-                this.event.addTag(Wrapper.getTagMaker().getOrCreateInQueue(this.queue, tag));
-            }
-            this.event.setComment(this.eventContainer.comment);
-
-            if (!hasEvent) {
-                this.queue.addEvent(event);
-            }
-
-            finish();
+            // Save event in background, keep editor open until it is written
+            Queue queue = this.queue;
+            Event event = this.event;
+            long timestamp = this.eventContainer.timestamp;
+            String comment = this.eventContainer.comment;
+            String[] tagNames = this.eventContainer.tags.toArray(new String[0]);
+            binding.fab.setEnabled(false);
+            DBExecutor.runJob(
+                () -> Wrapper.getEventMaker().saveEvent(queue, event, timestamp, comment, tagNames),
+                (Event result, Exception e) -> {
+                    if (e != null || result == null) {
+                        if (e != null)
+                            Log.wtf(TAG, e);
+
+                        binding.fab.setEnabled(true);
+                        Toast.makeText(EventEditActivity.this, "Failed to save event", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+
+                    this.event = result;
+                    finish();
+                }
+            );
         });
 
         /* Tags list + input */
@@ -35,6 +35,8 @@ import android.widget.Filter;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import art.pegasko.yeeemp.base.Tag;
 import art.pegasko.yeeemp.base.TagStat;
@@ -44,6 +46,7 @@ public class EventEditTagsAdapter extends ArrayAdapter<TagStat> {
 
     private ArrayList<TagStat> tags; // used by parent as container for filtered elements, changes as suer types
     private ArrayList<TagStat> tagsAll; // used as container with backup of all unfiltered tags, does not change
+    private TagSuggestionIndex tagsIndex; // index over tagsAll, built on first filtering
     private LayoutInflater inflater;
     private final int viewResourceId;
     private final int viewFieldId;
@@ -89,10 +92,12 @@ public class EventEditTagsAdapter extends ArrayAdapter<TagStat> {
     }
 
     private Filter nameFilter = new Filter() {
-        // TODO: Stop using mutable global
-        // Reusable filter result
-        private ArrayList<TagStat> tagsSuggestions = new ArrayList<TagStat>();
+        // Filter worker thread state, previous constraint and its result to reduce from
         private String prevConstraint = null;
+        private List<TagStat> prevSuggestions = Collections.emptyList();
+
+        // UI thread state, last published result
+        private List<TagStat> publishedSuggestions = null;
 
         @Override
         public String convertResultToString(Object resultValue) {
@@ -126,89 +131,84 @@ public class EventEditTagsAdapter extends ArrayAdapter<TagStat> {
             return !prevConstraint.equals(newConstraint);
         }
 
-        private void reduceTagsSuggestions(TagMatcher matcher) {
-            for (int index = 0; index < tagsSuggestions.size(); ) {
-                if (!matcher.isMatch(tagsSuggestions.get(index).tag))
-                    tagsSuggestions.remove(index);
-                else
-                    index += 1;
+        private List<TagStat> reduceTagsSuggestions(List<TagStat> suggestions, TagMatcher matcher) {
+            ArrayList<TagStat> reduced = new ArrayList<TagStat>();
+            for (TagStat tag : suggestions) {
+                if (matcher.isMatch(tag.tag))
+                    reduced.add(tag);
             }
+            return reduced;
         }
 
-        private void filterTagsSuggestions(TagMatcher matcher) {
-            tagsSuggestions.clear();
-            for (TagStat tag : tagsAll) {
-                if (matcher.isMatch(tag.tag)) {
-                    tagsSuggestions.add(tag);
-                }
-            }
+        private List<TagStat> filterTagsSuggestions(String constraint) {
+            // Built lazily on filter thread to not delay activity start
+            if (tagsIndex == null)
+                tagsIndex = new TagSuggestionIndex(tagsAll);
+
+            return tagsIndex.find(constraint);
         }
 
-        private void prepareTagsSuggestions(CharSequence constraint) {
+        /**
+         * @return immutable suggestions for constraint, same instance as previous if constraint did not change
+         */
+        private List<TagStat> prepareTagsSuggestions(CharSequence constraint) {
             String newConstraint = makeConstraintFromUserInput(constraint);
-            TagMatcher matcher = new TagMatcher(newConstraint);
 
-            // TODO: Use better search strategy and optimize search in non-reducing mode
             if (hasChangedConstraint(prevConstraint, newConstraint)) {
+                List<TagStat> suggestions;
                 if (checkIfPossibleReduceToConstraint(prevConstraint, newConstraint))
-                    reduceTagsSuggestions(matcher);
+                    suggestions = reduceTagsSuggestions(prevSuggestions, new TagMatcher(newConstraint));
                 else
-                    filterTagsSuggestions(matcher);
+                    suggestions = filterTagsSuggestions(newConstraint);
 
                 prevConstraint = newConstraint;
+                prevSuggestions = Collections.unmodifiableList(suggestions);
             }
+
+            return prevSuggestions;
         }
 
         private void resetTagsSuggestions() {
             prevConstraint = null;
-            tagsSuggestions.clear();
-        }
-
-        private FilterResults makeFilterResults() {
-            FilterResults filterResults = new FilterResults();
-            // TODO: Spank me for using global mutable instance for returning immutable result (causes concurrent modification when publishResults())
-            filterResults.values = tagsSuggestions;
-            filterResults.count = tagsSuggestions.size();
-            return filterResults;
-        }
-
-        private FilterResults makeEmptyFilterResults() {
-            return new FilterResults();
+            prevSuggestions = Collections.emptyList();
         }
 
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
-            synchronized (this) {
-                if (constraint != null) {
-                    prepareTagsSuggestions(constraint);
-                    return makeFilterResults();
-                } else {
-                    resetTagsSuggestions();
-                    return makeEmptyFilterResults();
-                }
+            // Runs on single filter worker thread, result list is never modified after it is returned
+            FilterResults filterResults = new FilterResults();
+            if (constraint != null) {
+                List<TagStat> suggestions = prepareTagsSuggestions(constraint);
+                filterResults.values = suggestions;
+                filterResults.count = suggestions.size();
+            } else {
+                resetTagsSuggestions();
             }
+
+            return filterResults;
         }
 
         @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
-            synchronized (this) {
-                if (results == null)
-                    return;
-
-                if (results.values == null) {
-                    clear();
-                    notifyDataSetChanged();
-                    return;
-                }
-
-                // TODO: Do not republish results if no data changed
-                ArrayList<TagStat> filteredList = (ArrayList<TagStat>) results.values;
-                clear();
-                for (TagStat c : filteredList) {
-                    add(c);
-                }
-                notifyDataSetChanged();
-            }
+            if (results == null)
+                return;
+
+            List<TagStat> suggestions = (
+                results.values == null
+                ? Collections.<TagStat>emptyList()
+                : (List<TagStat>) results.values
+            );
+
+            // Same result instance or same items, adapter already shows it
+            if (suggestions == publishedSuggestions || suggestions.equals(publishedSuggestions))
+                return;
+
+            publishedSuggestions = suggestions;
+
+            setNotifyOnChange(false);
+            clear();
+            addAll(suggestions);
+            notifyDataSetChanged();
         }
 
         /**
@@ -218,24 +218,11 @@ public class EventEditTagsAdapter extends ArrayAdapter<TagStat> {
             private final String[] constraintParts;
 
             public TagMatcher(String constraint) {
-                this.constraintParts = constraint.split(" +");
+                this.constraintParts = TagSuggestionIndex.splitConstraint(constraint);
             }
 
             public boolean isMatch(Tag tag) {
-                String tagName = tag.getName();
-                int lastIndex = 0;
-                for (String seq : constraintParts) {
-                    if (lastIndex >= tagName.length())
-                        return false;
-
-                    int newIndex = tagName.indexOf(seq, lastIndex);
-                    if (newIndex == -1)
-                        return false;
-
-                    lastIndex = newIndex + seq.length();
-                }
-
-                return true;
+                return TagSuggestionIndex.isMatch(tag.getName(), constraintParts);
             }
         }
     };
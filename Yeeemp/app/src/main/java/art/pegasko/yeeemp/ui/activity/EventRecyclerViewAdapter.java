@@ -28,8 +28,6 @@ package art.pegasko.yeeemp.ui.activity;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -38,9 +36,14 @@ import android.widget.PopupMenu;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import art.pegasko.yeeemp.R;
 import art.pegasko.yeeemp.base.Event;
@@ -53,14 +56,105 @@ import art.pegasko.yeeemp.databinding.EventListItemBinding;
 class EventRecyclerViewAdapter extends RecyclerView.Adapter<EventRecyclerViewAdapter.ViewHolder> {
     public static final String TAG = EventRecyclerViewAdapter.class.getSimpleName();
 
+    /* Events loaded per page */
+    private static final int PAGE_SIZE = 100;
+
+    /* Load next page when bound item is this close to the end of loaded events */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /* Max number of detached tag views kept for reuse */
+    private static final int TAG_VIEW_POOL_SIZE = 64;
+
     private final Queue queue;
-    private Event[] events;
+    // Never modified in place, replaced on each publish so background diff can read previous snapshot
+    private List<EventItem> events = Collections.emptyList();
+    private boolean hasMoreEvents = false;
+    private boolean loadingEvents = false;
+
+    // Tag views detached from rows with fewer tags, reused by rows with more tags instead of inflating
+    private final ArrayDeque<TextView> tagViewPool = new ArrayDeque<TextView>();
 
     private EventOrder.Order order;
 
     public EventRecyclerViewAdapter(Queue queue) {
         super();
         this.queue = queue;
+        this.setHasStableIds(true);
+    }
+
+    /**
+     * Immutable event row values, loaded in background so binding does not touch database
+     */
+    static class EventItem implements ItemDiffCallback.Item {
+        public final Event event;
+        public final int id;
+        public final long timestamp;
+        public final String comment;
+        public final String[] tagNames;
+
+        EventItem(Event event) {
+            this.event = event;
+            this.id = event.getId();
+            this.timestamp = event.getTimestamp();
+            this.comment = event.getComment();
+
+            Tag[] tags = event.getTags();
+            this.tagNames = new String[tags.length];
+            for (int index = 0; index < tags.length; ++index) {
+                this.tagNames[index] = tags[index].getName();
+            }
+        }
+
+        @Override
+        public long getItemId() {
+            return this.id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EventItem)) return false;
+
+            EventItem other = (EventItem) o;
+            return (
+                this.id == other.id
+                && this.timestamp == other.timestamp
+                && (this.comment == null ? other.comment == null : this.comment.equals(other.comment))
+                && Arrays.equals(this.tagNames, other.tagNames)
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.id;
+            hash = 31 * hash + (int) (this.timestamp ^ (this.timestamp >>> 32));
+            hash = 31 * hash + (this.comment == null ? 0 : this.comment.hashCode());
+            hash = 31 * hash + Arrays.hashCode(this.tagNames);
+            return hash;
+        }
+    }
+
+    /**
+     * Loaded events with diff against events shown at the moment of load
+     */
+    private static class Snapshot {
+        public final List<EventItem> items;
+        public final DiffUtil.DiffResult diff;
+        public final boolean hasMore;
+
+        Snapshot(List<EventItem> items, DiffUtil.DiffResult diff, boolean hasMore) {
+            this.items = items;
+            this.diff = diff;
+            this.hasMore = hasMore;
+        }
+    }
+
+    private static List<EventItem> toItems(Event[] events) {
+        ArrayList<EventItem> items = new ArrayList<EventItem>(events.length);
+        for (Event event : events) {
+            items.add(new EventItem(event));
+        }
+        return items;
     }
 
     @NonNull
@@ -75,24 +169,17 @@ class EventRecyclerViewAdapter extends RecyclerView.Adapter<EventRecyclerViewAda
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
-        viewHolder.getBinding().eventListItemTags.removeAllViews();
-        Tag[] tags = this.events[position].getTags();
-        for (Tag tag : tags) {
-            TextView tagView = (TextView) (
-                LayoutInflater.from(viewHolder.getBinding().getRoot().getContext()).inflate(
-                    R.layout.event_list_item_tag,
-                    null,
-                    false
-                )
-            );
-
-            tagView.setText(tag.getName());
-            viewHolder.getBinding().eventListItemTags.addView(tagView);
+        if (position >= this.events.size() - PREFETCH_DISTANCE) {
+            this.loadMoreItems();
         }
 
-        viewHolder.getBinding().eventListItemTimestamp.setText(Utils.formatTs(events[position].getTimestamp()));
+        EventItem item = this.events.get(position);
 
-        String comment = events[position].getComment();
+        this.bindTags(viewHolder, item.tagNames);
+
+        viewHolder.getBinding().eventListItemTimestamp.setText(Utils.formatTs(item.timestamp));
+
+        String comment = item.comment;
         if (comment != null && !comment.isEmpty()) {
             viewHolder.getBinding().eventListItemComment.setVisibility(View.VISIBLE);
             viewHolder.getBinding().eventListItemComment.setText(comment);
@@ -111,7 +198,7 @@ class EventRecyclerViewAdapter extends RecyclerView.Adapter<EventRecyclerViewAda
                         android.R.string.yes,
                         (dialog, which) -> {
                             Wrapper.getEventMaker().delete(
-                                events[position]);
+                                item.event);
 
                             reloadItems();
                         }
@@ -131,7 +218,7 @@ class EventRecyclerViewAdapter extends RecyclerView.Adapter<EventRecyclerViewAda
             Utils.hapticTick(view);
 
             Bundle extra = new Bundle();
-            extra.putInt("event_id", this.events[position].getId());
+            extra.putInt("event_id", item.id);
             extra.putInt("queue_id", this.queue.getId());
 
             Intent intent = new Intent(view.getContext(), EventEditActivity.class);
@@ -141,9 +228,56 @@ class EventRecyclerViewAdapter extends RecyclerView.Adapter<EventRecyclerViewAda
         });
     }
 
+    /**
+     * Show tag names in row reusing its tag views.
+     *
+     * Extra views are moved to pool, missing views are taken from pool and inflated only when pool is empty. Text of
+     * reused view is set only if changed to avoid layout request.
+     */
+    private void bindTags(ViewHolder viewHolder, String[] tagNames) {
+        ViewGroup tagsView = viewHolder.getBinding().eventListItemTags;
+
+        int count = tagsView.getChildCount();
+        while (count > tagNames.length) {
+            TextView tagView = (TextView) tagsView.getChildAt(--count);
+            tagsView.removeViewAt(count);
+
+            if (this.tagViewPool.size() < TAG_VIEW_POOL_SIZE)
+                this.tagViewPool.push(tagView);
+        }
+
+        for (int index = 0; index < tagNames.length; ++index) {
+            TextView tagView;
+            if (index < count) {
+                tagView = (TextView) tagsView.getChildAt(index);
+            } else {
+                tagView = this.tagViewPool.poll();
+                if (tagView == null) {
+                    tagView = (TextView) (
+                        LayoutInflater.from(tagsView.getContext()).inflate(
+                            R.layout.event_list_item_tag,
+                            null,
+                            false
+                        )
+                    );
+                }
+
+                tagsView.addView(tagView);
+            }
+
+            if (!tagNames[index].contentEquals(tagView.getText()))
+                tagView.setText(tagNames[index]);
+        }
+    }
+
     @Override
     public int getItemCount() {
-        return this.events.length;
+        return this.events.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return this.events.get(position).id;
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -159,14 +293,70 @@ class EventRecyclerViewAdapter extends RecyclerView.Adapter<EventRecyclerViewAda
         }
     }
 
+    /**
+     * Reload events from the beginning, keeping at least as many events as currently loaded.
+     *
+     * Supersedes any pending reload or page load of this adapter. Diff against shown events is calculated in
+     * background, so only changed, inserted, removed or moved rows are rebound.
+     */
     public void reloadItems() {
-        Handler handler = new Handler(Looper.getMainLooper());
-        Executors.newSingleThreadExecutor().execute(() -> {
-            this.events = this.queue.getEvents(this.order);
-            handler.post(() -> {
-                this.notifyDataSetChanged();
-            });
-        });
+        int limit = Math.max(PAGE_SIZE, this.events.size());
+        EventOrder.Order order = this.order;
+        List<EventItem> shown = this.events;
+
+        this.loadingEvents = true;
+        DBExecutor.submit(
+            this,
+            () -> {
+                Event[] page = this.queue.getEvents(order, null, limit);
+                List<EventItem> items = toItems(page);
+                return new Snapshot(items, ItemDiffCallback.calculate(shown, items), page.length == limit);
+            },
+            (Snapshot snapshot) -> {
+                this.events = snapshot.items;
+                this.hasMoreEvents = snapshot.hasMore;
+                this.loadingEvents = false;
+                snapshot.diff.dispatchUpdatesTo(this);
+            },
+            (RuntimeException error) -> {
+                this.loadingEvents = false;
+            }
+        );
+    }
+
+    /**
+     * Append next page of events after last loaded event
+     */
+    private void loadMoreItems() {
+        if (!this.hasMoreEvents || this.loadingEvents || this.events.isEmpty()) {
+            return;
+        }
+
+        // Keyset from values the last row was loaded with, shared event handle may be changed since
+        EventItem last = this.events.get(this.events.size() - 1);
+        long afterTimestamp = last.timestamp;
+        int afterId = last.id;
+        EventOrder.Order order = this.order;
+
+        this.loadingEvents = true;
+        DBExecutor.submit(
+            this,
+            () -> toItems(this.queue.getEvents(order, afterTimestamp, afterId, PAGE_SIZE)),
+            (List<EventItem> page) -> {
+                int start = this.events.size();
+                ArrayList<EventItem> events = new ArrayList<EventItem>(start + page.size());
+                events.addAll(this.events);
+                events.addAll(page);
+
+                this.events = events;
+                this.hasMoreEvents = page.size() == PAGE_SIZE;
+                this.loadingEvents = false;
+                this.notifyItemRangeInserted(start, page.size());
+            },
+            (RuntimeException error) -> {
+                this.loadingEvents = false;
+            }
+        );
     }
 
     public void setOrder(EventOrder.Order order) {
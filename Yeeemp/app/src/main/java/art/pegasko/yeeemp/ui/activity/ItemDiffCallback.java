@@ -0,0 +1,77 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.ui.activity;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Diff between two immutable snapshots of adapter items.
+ *
+ * Items are matched by stable id and compared by `equals()` for contents, so computing diff does not touch
+ * database and may run in background.
+ */
+class ItemDiffCallback<T extends ItemDiffCallback.Item> extends DiffUtil.Callback {
+    interface Item {
+        long getItemId();
+    }
+
+    private final List<T> oldItems;
+    private final List<T> newItems;
+
+    ItemDiffCallback(List<T> oldItems, List<T> newItems) {
+        this.oldItems = oldItems;
+        this.newItems = newItems;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return this.oldItems.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return this.newItems.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return this.oldItems.get(oldItemPosition).getItemId() == this.newItems.get(newItemPosition).getItemId();
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return this.oldItems.get(oldItemPosition).equals(this.newItems.get(newItemPosition));
+    }
+
+    /**
+     * Calculate diff between snapshots
+     */
+    static <T extends Item> DiffUtil.DiffResult calculate(List<T> oldItems, List<T> newItems) {
+        return DiffUtil.calculateDiff(new ItemDiffCallback<T>(oldItems, newItems));
+    }
+}
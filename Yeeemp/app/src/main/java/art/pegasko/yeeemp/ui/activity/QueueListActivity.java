@@ -27,6 +27,7 @@ package art.pegasko.yeeemp.ui.activity;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -56,14 +57,24 @@ import art.pegasko.yeeemp.base.Wrapper;
 import art.pegasko.yeeemp.databinding.ActivityQueueListBinding;
 
 import art.pegasko.yeeemp.R;
+import art.pegasko.yeeemp.impl.Backup;
 import art.pegasko.yeeemp.impl.DataUtils;
+import art.pegasko.yeeemp.impl.EventExporter;
+import art.pegasko.yeeemp.impl.EventImporter;
 import art.pegasko.yeeemp.impl.Init;
+import art.pegasko.yeeemp.impl.Merge;
+import art.pegasko.yeeemp.service.BackupJobService;
+import art.pegasko.yeeemp.service.MaintenanceJobService;
 
 public class QueueListActivity extends AppCompatActivity {
     public static final String TAG = QueueListActivity.class.getSimpleName();
 
     private static final int REQUEST_CODE_CREATE_FILE = 37;
     private static final int REQUEST_CODE_OPEN_FILE = 19;
+    private static final int REQUEST_CODE_MERGE_FILE = 23;
+    private static final int REQUEST_CODE_EXPORT_CSV = 41;
+    private static final int REQUEST_CODE_EXPORT_BINARY = 43;
+    private static final int REQUEST_CODE_IMPORT_EVENTS = 47;
 
     private static String PREFS_UI_QUEUE_ORDER = "ui-queue-order";
     private static String PREFS_UI_QUEUE_ORDER_DEFAULT = "id";
@@ -99,6 +110,8 @@ public class QueueListActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
 
         Init.initDB(getApplicationContext());
+        MaintenanceJobService.schedule(getApplicationContext());
+        BackupJobService.schedule(getApplicationContext());
 
         binding = ActivityQueueListBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
@@ -164,12 +177,87 @@ public class QueueListActivity extends AppCompatActivity {
                 intent.putExtra(Intent.EXTRA_TITLE, "export_" + DataUtils.formatTs(System.currentTimeMillis()) + ".db");
                 startActivityForResult(intent, REQUEST_CODE_CREATE_FILE);
 
+                return true;
+            } else if (
+                item.getItemId() == R.id.queue_list_toolbar_menu_export_csv
+                || item.getItemId() == R.id.queue_list_toolbar_menu_export_binary
+            ) {
+                boolean csv = (item.getItemId() == R.id.queue_list_toolbar_menu_export_csv);
+                EventExporter.Format format = (csv ? EventExporter.Format.CSV : EventExporter.Format.BINARY);
+
+                Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                intent.setType("application/gzip");
+                intent.putExtra(
+                    Intent.EXTRA_TITLE,
+                    "events_" + DataUtils.formatTs(System.currentTimeMillis()) + "." + format.extension + ".gz"
+                );
+                startActivityForResult(intent, csv ? REQUEST_CODE_EXPORT_CSV : REQUEST_CODE_EXPORT_BINARY);
+
                 return true;
             } else if (item.getItemId() == R.id.queue_list_toolbar_menu_import) {
                 Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
                 intent.setType("*/*");
                 startActivityForResult(intent, REQUEST_CODE_OPEN_FILE);
 
+                return true;
+            } else if (item.getItemId() == R.id.queue_list_toolbar_menu_merge) {
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.setType("*/*");
+                startActivityForResult(intent, REQUEST_CODE_MERGE_FILE);
+
+                return true;
+            } else if (item.getItemId() == R.id.queue_list_toolbar_menu_import_events) {
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.setType("*/*");
+                startActivityForResult(intent, REQUEST_CODE_IMPORT_EVENTS);
+
+                return true;
+            } else if (item.getItemId() == R.id.queue_list_toolbar_menu_restore) {
+                if (!Backup.hasBackup(getApplicationContext())) {
+                    Toast.makeText(QueueListActivity.this, "No backup yet", Toast.LENGTH_SHORT).show();
+                    return true;
+                }
+
+                new AlertDialog
+                    .Builder(QueueListActivity.this)
+                    .setTitle("Confirm action")
+                    .setMessage("Restore last backup? This will replace local database with backup")
+                    .setCancelable(true)
+                    .setPositiveButton("Yes", (DialogInterface dialog, int id) -> {
+                        Log.i(TAG, "Restoring backup");
+
+                        Context context = getApplicationContext();
+                        binding.toolbar.setSubtitle("Restoring");
+                        DBExecutor.runJob(
+                            () -> {
+                                DataUtils.restoreBackup(context);
+                                return null;
+                            },
+                            (Void result, Exception e) -> {
+                                binding.toolbar.setSubtitle(null);
+                                updateList();
+
+                                if (e == null) {
+                                    Toast.makeText(QueueListActivity.this, "Restored backup", Toast.LENGTH_SHORT).show();
+                                    return;
+                                }
+
+                                Log.e(TAG, "Restore failed");
+                                Log.wtf(TAG, e);
+
+                                new AlertDialog
+                                    .Builder(QueueListActivity.this)
+                                    .setTitle("Restore failed")
+                                    .setMessage(e.getMessage())
+                                    .setCancelable(true)
+                                    .setNegativeButton("OK", (DialogInterface dialog2, int id2) -> { dialog2.cancel(); })
+                                    .show();
+                            }
+                        );
+                    })
+                    .setNegativeButton("Cancel", (DialogInterface dialog, int id) -> { dialog.cancel(); })
+                    .show();
+
                 return true;
             } else if (item.getItemId() == R.id.queue_list_toolbar_menu_delete) {
 
@@ -180,14 +268,8 @@ public class QueueListActivity extends AppCompatActivity {
                     .setCancelable(true)
                     .setPositiveButton("Yes", (DialogInterface dialog, int id) -> {
                         try {
-                            Log.i(TAG, "Close before delete");
-                            DataUtils.closeDatabase();
-
                             Log.i(TAG, "Deleting database");
-                            DataUtils.deleteDatabase(getApplicationContext());
-
-                            Log.i(TAG, "Reloading database");
-                            Init.reinitDB(getApplicationContext());
+                            DataUtils.resetDatabase(getApplicationContext());
                             updateList();
                         } catch (Exception e) {
                             Log.e(TAG, "Delete failed");
@@ -252,20 +334,118 @@ public class QueueListActivity extends AppCompatActivity {
                 Uri uri = resultData.getData();
                 Log.i(TAG, "Exporting file to " + uri.toString());
 
-                try {
-                    DataUtils.exportDatabase(getApplicationContext(), uri);
-                    Toast.makeText(QueueListActivity.this, "Exported database", Toast.LENGTH_SHORT).show();
-                } catch (Exception e) {
-                    Log.wtf(TAG, e);
-
-                    new AlertDialog
-                        .Builder(QueueListActivity.this)
-                        .setTitle("Export failed")
-                        .setMessage(e.getMessage())
-                        .setCancelable(true)
-                        .setNegativeButton("OK", (DialogInterface dialog, int id) -> { dialog.cancel(); })
-                        .show();
-                }
+                // Copy in background, progress is shown in toolbar
+                Context context = getApplicationContext();
+                binding.toolbar.setSubtitle("Exporting");
+                DBExecutor.runJob(
+                    () -> {
+                        DataUtils.exportDatabase(context, uri, (long copied, long total) -> {
+                            if (total > 0) {
+                                int percent = (int) (copied * 100 / total);
+                                runOnUiThread(() -> binding.toolbar.setSubtitle("Exporting " + percent + "%"));
+                            }
+                        });
+                        return null;
+                    },
+                    (Void result, Exception e) -> {
+                        binding.toolbar.setSubtitle(null);
+
+                        if (e == null) {
+                            Toast.makeText(QueueListActivity.this, "Exported database", Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+
+                        Log.wtf(TAG, e);
+
+                        new AlertDialog
+                            .Builder(QueueListActivity.this)
+                            .setTitle("Export failed")
+                            .setMessage(e.getMessage())
+                            .setCancelable(true)
+                            .setNegativeButton("OK", (DialogInterface dialog, int id) -> { dialog.cancel(); })
+                            .show();
+                    }
+                );
+            }
+        } else if (
+            (requestCode == REQUEST_CODE_EXPORT_CSV || requestCode == REQUEST_CODE_EXPORT_BINARY)
+            && resultCode == Activity.RESULT_OK
+        ) {
+            if (resultData != null) {
+                Uri uri = resultData.getData();
+                Log.i(TAG, "Exporting events to " + uri.toString());
+
+                EventExporter.Format format = (
+                    requestCode == REQUEST_CODE_EXPORT_CSV ? EventExporter.Format.CSV : EventExporter.Format.BINARY
+                );
+
+                // Write in background, progress is shown in toolbar
+                Context context = getApplicationContext();
+                binding.toolbar.setSubtitle("Exporting events");
+                DBExecutor.runJob(
+                    () -> {
+                        EventExporter.export(context, uri, format, (long exported, long total) -> {
+                            if (total > 0) {
+                                int percent = (int) (exported * 100 / total);
+                                runOnUiThread(() -> binding.toolbar.setSubtitle("Exporting events " + percent + "%"));
+                            }
+                        });
+                        return null;
+                    },
+                    (Void result, Exception e) -> {
+                        binding.toolbar.setSubtitle(null);
+
+                        if (e == null) {
+                            Toast.makeText(QueueListActivity.this, "Exported events", Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+
+                        Log.wtf(TAG, e);
+
+                        new AlertDialog
+                            .Builder(QueueListActivity.this)
+                            .setTitle("Export failed")
+                            .setMessage(e.getMessage())
+                            .setCancelable(true)
+                            .setNegativeButton("OK", (DialogInterface dialog, int id) -> { dialog.cancel(); })
+                            .show();
+                    }
+                );
+            }
+        } else if (requestCode == REQUEST_CODE_IMPORT_EVENTS && resultCode == Activity.RESULT_OK) {
+            if (resultData != null) {
+                Uri uri = resultData.getData();
+                Log.i(TAG, "Importing events from " + uri.toString());
+
+                Context context = getApplicationContext();
+                binding.toolbar.setSubtitle("Importing events");
+                DBExecutor.runJob(
+                    () -> EventImporter.run(context, uri),
+                    (EventImporter.Report report, Exception e) -> {
+                        binding.toolbar.setSubtitle(null);
+                        updateList();
+
+                        if (e == null) {
+                            Toast.makeText(
+                                QueueListActivity.this,
+                                "Imported " + report.events + " events",
+                                Toast.LENGTH_SHORT
+                            ).show();
+                            return;
+                        }
+
+                        Log.e(TAG, "Import events failed");
+                        Log.wtf(TAG, e);
+
+                        new AlertDialog
+                            .Builder(QueueListActivity.this)
+                            .setTitle("Import events failed")
+                            .setMessage(e.getMessage())
+                            .setCancelable(true)
+                            .setNegativeButton("OK", (DialogInterface dialog, int id) -> { dialog.cancel(); })
+                            .show();
+                    }
+                );
             }
         } else if (requestCode == REQUEST_CODE_OPEN_FILE && resultCode == Activity.RESULT_OK) {
             if (resultData != null) {
@@ -274,72 +454,85 @@ public class QueueListActivity extends AppCompatActivity {
                 new AlertDialog
                     .Builder(QueueListActivity.this)
                     .setTitle("Confirm action")
-                    .setMessage("Import file as database? This will overwrite local database with external file without checking")
+                    .setMessage("Import file as database? This will replace local database with external file")
                     .setCancelable(true)
                     .setPositiveButton("Yes", (DialogInterface dialog, int id) -> {
                         Log.i(TAG, "Importing file from " + uri.toString());
 
-                        try {
-                            Log.i(TAG, "Close before restore");
-                            DataUtils.closeDatabase();
-
-                            Log.i(TAG, "Backup before restore");
-                            DataUtils.backupDatabase(getApplicationContext());
-
-                            Log.i(TAG, "Importing database");
-                            DataUtils.importDatabase(getApplicationContext(), uri);
-                            Toast.makeText(QueueListActivity.this, "Imported database", Toast.LENGTH_SHORT).show();
-
-                            Log.i(TAG, "Reloading database");
-                            Init.reinitDB(getApplicationContext());
-                            updateList();
-
-                            Log.i(TAG, "Delete backup");
-                            DataUtils.deleteBackupDatabase(getApplicationContext());
-                        } catch (Exception e) {
-                            Log.e(TAG, "Import failed");
-                            Log.wtf(TAG, e);
-
-                            new AlertDialog
-                                .Builder(QueueListActivity.this)
-                                .setTitle("Import failed")
-                                .setMessage(e.getMessage())
-                                .setCancelable(true)
-                                .setNegativeButton("OK", (DialogInterface dialog2, int id2) -> { dialog2.cancel(); })
-                                .show();
-
-                            try {
-                                Log.i(TAG, "Trying to restore backup");
-                                DataUtils.restoreDatabase(getApplicationContext());
-
-                                Log.i(TAG, "Reloading database");
-                                Init.reinitDB(getApplicationContext());
+                        // Imported file is checked before it replaces live database, nothing to restore on failure
+                        Context context = getApplicationContext();
+                        binding.toolbar.setSubtitle("Importing");
+                        DBExecutor.runJob(
+                            () -> {
+                                DataUtils.importDatabase(context, uri);
+                                return null;
+                            },
+                            (Void result, Exception e) -> {
+                                binding.toolbar.setSubtitle(null);
                                 updateList();
 
-                                Log.i(TAG, "Delete backup");
-                                DataUtils.deleteBackupDatabase(getApplicationContext());
+                                if (e == null) {
+                                    Toast.makeText(QueueListActivity.this, "Imported database", Toast.LENGTH_SHORT).show();
+                                    return;
+                                }
+
+                                Log.e(TAG, "Import failed");
+                                Log.wtf(TAG, e);
 
                                 new AlertDialog
                                     .Builder(QueueListActivity.this)
-                                    .setTitle("Info")
-                                    .setMessage("Restored backup")
+                                    .setTitle("Import failed")
+                                    .setMessage(e.getMessage())
                                     .setCancelable(true)
                                     .setNegativeButton("OK", (DialogInterface dialog2, int id2) -> { dialog2.cancel(); })
                                     .show();
+                            }
+                        );
+                    })
+                    .setNegativeButton("Cancel", (DialogInterface dialog, int id) -> { dialog.cancel(); })
+                    .show();
+            }
+        } else if (requestCode == REQUEST_CODE_MERGE_FILE && resultCode == Activity.RESULT_OK) {
+            if (resultData != null) {
+                final Uri uri = resultData.getData();
+
+                new AlertDialog
+                    .Builder(QueueListActivity.this)
+                    .setTitle("Confirm action")
+                    .setMessage("Merge file into database? Queues, tags and events missing in local database will be added")
+                    .setCancelable(true)
+                    .setPositiveButton("Yes", (DialogInterface dialog, int id) -> {
+                        Log.i(TAG, "Merging file from " + uri.toString());
+
+                        Context context = getApplicationContext();
+                        binding.toolbar.setSubtitle("Merging");
+                        DBExecutor.runJob(
+                            () -> DataUtils.mergeDatabase(context, uri),
+                            (Merge.Report report, Exception e) -> {
+                                binding.toolbar.setSubtitle(null);
+                                updateList();
+
+                                if (e == null) {
+                                    Toast.makeText(
+                                        QueueListActivity.this,
+                                        "Merged " + report.events + " events, skipped " + report.duplicateEvents + " duplicates",
+                                        Toast.LENGTH_LONG
+                                    ).show();
+                                    return;
+                                }
 
-                            } catch (Exception e2) {
-                                Log.e(TAG, "Restore backup failed");
-                                Log.wtf(TAG, e2);
+                                Log.e(TAG, "Merge failed");
+                                Log.wtf(TAG, e);
 
                                 new AlertDialog
                                     .Builder(QueueListActivity.this)
-                                    .setTitle("Restore backup failed")
-                                    .setMessage(e2.getMessage())
+                                    .setTitle("Merge failed")
+                                    .setMessage(e.getMessage())
                                     .setCancelable(true)
                                     .setNegativeButton("OK", (DialogInterface dialog2, int id2) -> { dialog2.cancel(); })
                                     .show();
                             }
-                        }
+                        );
                     })
                     .setNegativeButton("Cancel", (DialogInterface dialog, int id) -> { dialog.cancel(); })
                     .show();
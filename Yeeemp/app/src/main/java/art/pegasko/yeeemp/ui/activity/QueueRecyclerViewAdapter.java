@@ -37,10 +37,16 @@ import android.widget.EditText;
 import android.widget.PopupMenu;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import art.pegasko.yeeemp.R;
 import art.pegasko.yeeemp.base.Queue;
+import art.pegasko.yeeemp.base.QueueMaker;
 import art.pegasko.yeeemp.base.QueueOrder;
 import art.pegasko.yeeemp.base.Wrapper;
 import art.pegasko.yeeemp.databinding.QueueListItemBinding;
@@ -48,10 +54,72 @@ import art.pegasko.yeeemp.databinding.QueueListItemBinding;
 class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAdapter.ViewHolder> {
     public static final String TAG = QueueRecyclerViewAdapter.class.getSimpleName();
 
-    private Queue[] queues;
+    // Never modified in place, replaced on each publish so background diff can read previous snapshot
+    private List<QueueItem> queues = Collections.emptyList();
 
     private QueueOrder.Order order;
 
+    public QueueRecyclerViewAdapter() {
+        super();
+        this.setHasStableIds(true);
+    }
+
+    /**
+     * Immutable queue row values, loaded in background so binding does not touch database
+     */
+    static class QueueItem implements ItemDiffCallback.Item {
+        public final Queue queue;
+        public final int id;
+        public final String name;
+        public final int eventCount;
+
+        QueueItem(Queue queue) {
+            this.queue = queue;
+            this.id = queue.getId();
+            this.name = queue.getName();
+            this.eventCount = queue.getEventCount();
+        }
+
+        @Override
+        public long getItemId() {
+            return this.id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof QueueItem)) return false;
+
+            QueueItem other = (QueueItem) o;
+            return (
+                this.id == other.id
+                && this.eventCount == other.eventCount
+                && (this.name == null ? other.name == null : this.name.equals(other.name))
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.id;
+            hash = 31 * hash + this.eventCount;
+            hash = 31 * hash + (this.name == null ? 0 : this.name.hashCode());
+            return hash;
+        }
+    }
+
+    /**
+     * Loaded queues with diff against queues shown at the moment of load
+     */
+    private static class Snapshot {
+        public final List<QueueItem> items;
+        public final DiffUtil.DiffResult diff;
+
+        Snapshot(List<QueueItem> items, DiffUtil.DiffResult diff) {
+            this.items = items;
+            this.diff = diff;
+        }
+    }
+
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int viewType) {
@@ -64,7 +132,9 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
-        viewHolder.getBinding().queueListItemTitle.setText(queues[position].getName());
+        QueueItem item = this.queues.get(position);
+
+        viewHolder.getBinding().queueListItemTitle.setText(item.name);
 
         viewHolder.getBinding().queueListItemItem.setOnLongClickListener((View view) -> {
             PopupMenu popupMenu = new PopupMenu(view.getContext(), viewHolder.getBinding().queueListItemItem);
@@ -72,11 +142,11 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
             popupMenu.setOnMenuItemClickListener((MenuItem menuItem) -> {
                 if (menuItem.getItemId() == R.id.queue_list_item_action_menu_delete) {
                     new AlertDialog.Builder(view.getContext()).setTitle("Delete queue").setMessage(
-                        "Are you sure you want to delete " + queues[position].getName() + "?").setPositiveButton(
+                        "Are you sure you want to delete " + item.name + "?").setPositiveButton(
                         android.R.string.yes,
                         (dialog, which) -> {
                             Wrapper.getQueueMaker().delete(
-                                queues[position]);
+                                item.queue);
 
                             reloadItems();
                         }
@@ -87,12 +157,12 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
 
                     final EditText input = new EditText(view.getContext());
                     input.setInputType(InputType.TYPE_CLASS_TEXT);
-                    input.setText(queues[position].getName());
+                    input.setText(item.name);
                     builder.setView(input);
 
                     builder.setPositiveButton("OK", (dialog, which) -> {
                         String name = input.getText().toString().trim();
-                        queues[position].setName(name);
+                        item.queue.setName(name);
 
                         reloadItems();
                     });
@@ -111,7 +181,7 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
             Utils.hapticTick(view);
 
             Bundle extra = new Bundle();
-            extra.putInt("queue_id", queues[position].getId());
+            extra.putInt("queue_id", item.id);
 
             Intent intent = new Intent(view.getContext(), EventListActivity.class);
             intent.putExtras(extra);
@@ -119,13 +189,13 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
             view.getContext().startActivity(intent);
         });
 
-        viewHolder.getBinding().queueListItemStats.setText(Integer.toString(queues[position].getEventCount()));
+        viewHolder.getBinding().queueListItemStats.setText(Integer.toString(item.eventCount));
 
         viewHolder.getBinding().queueListItemPlus.setOnClickListener((View view) -> {
             Utils.hapticTick(view);
 
             Bundle extra = new Bundle();
-            extra.putInt("queue_id", this.queues[position].getId());
+            extra.putInt("queue_id", item.id);
 
             Intent intent = new Intent(view.getContext(), EventEditActivity.class);
             intent.putExtras(extra);
@@ -136,7 +206,12 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
 
     @Override
     public int getItemCount() {
-        return this.queues.length;
+        return this.queues.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return this.queues.get(position).id;
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -152,9 +227,32 @@ class QueueRecyclerViewAdapter extends RecyclerView.Adapter<QueueRecyclerViewAda
         }
     }
 
+    /**
+     * Load queues in background and publish them on main thread.
+     *
+     * Diff against shown queues is calculated in background, so only changed, inserted, removed or moved rows are
+     * rebound.
+     */
     public void reloadItems() {
-        this.queues = Wrapper.getQueueMaker().list(this.order);
-        this.notifyDataSetChanged();
+        QueueMaker queueMaker = Wrapper.getQueueMaker();
+        QueueOrder.Order order = this.order;
+        List<QueueItem> shown = this.queues;
+
+        DBExecutor.submit(
+            this,
+            () -> {
+                Queue[] queues = queueMaker.list(order);
+                ArrayList<QueueItem> items = new ArrayList<QueueItem>(queues.length);
+                for (Queue queue : queues) {
+                    items.add(new QueueItem(queue));
+                }
+                return new Snapshot(items, ItemDiffCallback.calculate(shown, items));
+            },
+            (Snapshot snapshot) -> {
+                this.queues = snapshot.items;
+                snapshot.diff.dispatchUpdatesTo(this);
+            }
+        );
     }
 
     public void setOrder(QueueOrder.Order order) {
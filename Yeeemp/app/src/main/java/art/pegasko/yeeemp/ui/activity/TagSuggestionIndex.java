@@ -0,0 +1,220 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.ui.activity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import art.pegasko.yeeemp.base.TagStat;
+
+/**
+ * In-memory index of tag names for autocomplete suggestions.
+ *
+ * Keeps sorted suffix array over all tag names. Query constraint is split into parts by spaces and tag matches when
+ * all parts are found in its name in order. Candidates are found by binary search of the longest part among
+ * suffixes, so only tags containing that part are checked against whole constraint.
+ *
+ * Immutable after construction and safe to use from filter thread.
+ */
+class TagSuggestionIndex {
+    public static final String TAG = TagSuggestionIndex.class.getSimpleName();
+
+    // Tags ranked by count, descending
+    private final TagStat[] tags;
+    private final String[] names;
+
+    // Suffixes in lexicographic order as (tag index, offset in name)
+    private final int[] suffixTags;
+    private final int[] suffixOffsets;
+
+    TagSuggestionIndex(List<TagStat> tags) {
+        ArrayList<TagStat> ranked = new ArrayList<TagStat>(tags);
+        // Stable, keeps original order of tags with equal count
+        Collections.sort(ranked, (TagStat a, TagStat b) -> Integer.compare(b.count, a.count));
+
+        this.tags = ranked.toArray(new TagStat[0]);
+        this.names = new String[this.tags.length];
+
+        int suffixCount = 0;
+        for (int index = 0; index < this.tags.length; ++index) {
+            this.names[index] = this.tags[index].tag.getName();
+            suffixCount += this.names[index].length();
+        }
+
+        Integer[] order = new Integer[suffixCount];
+        int[] tagOf = new int[suffixCount];
+        int[] offsetOf = new int[suffixCount];
+
+        int suffix = 0;
+        for (int index = 0; index < this.names.length; ++index) {
+            for (int offset = 0; offset < this.names[index].length(); ++offset) {
+                tagOf[suffix] = index;
+                offsetOf[suffix] = offset;
+                order[suffix] = suffix;
+                ++suffix;
+            }
+        }
+
+        String[] names = this.names;
+        Arrays.sort(order, (Integer a, Integer b) -> compareSuffixes(
+            names[tagOf[a]], offsetOf[a],
+            names[tagOf[b]], offsetOf[b]
+        ));
+
+        this.suffixTags = new int[suffixCount];
+        this.suffixOffsets = new int[suffixCount];
+        for (int index = 0; index < suffixCount; ++index) {
+            this.suffixTags[index] = tagOf[order[index]];
+            this.suffixOffsets[index] = offsetOf[order[index]];
+        }
+    }
+
+    private static int compareSuffixes(String a, int offsetA, String b, int offsetB) {
+        int lengthA = a.length() - offsetA;
+        int lengthB = b.length() - offsetB;
+        int length = Math.min(lengthA, lengthB);
+        for (int index = 0; index < length; ++index) {
+            int diff = a.charAt(offsetA + index) - b.charAt(offsetB + index);
+            if (diff != 0)
+                return diff;
+        }
+
+        return lengthA - lengthB;
+    }
+
+    /**
+     * Compare suffix with prefix, suffix starting with prefix is equal to it
+     */
+    private int compareSuffixToPrefix(int suffix, String prefix) {
+        String name = this.names[this.suffixTags[suffix]];
+        int offset = this.suffixOffsets[suffix];
+        int length = Math.min(name.length() - offset, prefix.length());
+        for (int index = 0; index < length; ++index) {
+            int diff = name.charAt(offset + index) - prefix.charAt(index);
+            if (diff != 0)
+                return diff;
+        }
+
+        return length < prefix.length() ? -1 : 0;
+    }
+
+    /**
+     * @return first suffix not less than prefix (`strict` false) or greater than prefix (`strict` true)
+     */
+    private int bound(String prefix, boolean strict) {
+        int low = 0;
+        int high = this.suffixTags.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int cmp = this.compareSuffixToPrefix(middle, prefix);
+            if (cmp < 0 || (strict && cmp == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Split user constraint into parts to be matched in order
+     */
+    static String[] splitConstraint(String constraint) {
+        return constraint.split(" +");
+    }
+
+    /**
+     * Check that all constraint parts are found in name in order without overlapping
+     */
+    static boolean isMatch(String name, String[] constraintParts) {
+        int lastIndex = 0;
+        for (String seq : constraintParts) {
+            if (lastIndex >= name.length())
+                return false;
+
+            int newIndex = name.indexOf(seq, lastIndex);
+            if (newIndex == -1)
+                return false;
+
+            lastIndex = newIndex + seq.length();
+        }
+
+        return true;
+    }
+
+    /**
+     * Find tags matching constraint
+     *
+     * @return matching tags ranked by count, descending
+     */
+    List<TagStat> find(String constraint) {
+        String[] constraintParts = splitConstraint(constraint);
+
+        String longest = "";
+        for (String part : constraintParts) {
+            if (part.length() > longest.length())
+                longest = part;
+        }
+
+        ArrayList<TagStat> result = new ArrayList<TagStat>();
+
+        // Nothing to search by, check all
+        if (longest.isEmpty()) {
+            for (int index = 0; index < this.tags.length; ++index) {
+                if (isMatch(this.names[index], constraintParts))
+                    result.add(this.tags[index]);
+            }
+
+            return result;
+        }
+
+        int from = this.bound(longest, false);
+        int to = this.bound(longest, true);
+
+        int[] candidates = new int[to - from];
+        for (int suffix = from; suffix < to; ++suffix) {
+            candidates[suffix - from] = this.suffixTags[suffix];
+        }
+
+        // Tag index is its rank
+        Arrays.sort(candidates);
+
+        int previous = -1;
+        for (int candidate : candidates) {
+            if (candidate == previous)
+                continue;
+            previous = candidate;
+
+            if (isMatch(this.names[candidate], constraintParts))
+                result.add(this.tags[candidate]);
+        }
+
+        return result;
+    }
+}
@@ -32,18 +32,21 @@ import android.os.Vibrator;
 import android.view.HapticFeedbackConstants;
 import android.view.View;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
+import art.pegasko.yeeemp.impl.TimestampFormatter;
+
 public class Utils {
     public static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
 
+    // Same output as DATE_FORMAT
+    private static final TimestampFormatter TIMESTAMP_FORMATTER = new TimestampFormatter("yyyy-MM-dd", " ", ":");
+
     public static String formatTs(long timestamp) {
-        SimpleDateFormat sdf = new SimpleDateFormat(Utils.DATE_FORMAT);
-        return sdf.format(timestamp);
+        return TIMESTAMP_FORMATTER.format(timestamp);
     }
 
     public static String[] orderedDeduplicateIgnoreCaseAndTrim(String[] items) {
@@ -0,0 +1,145 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+import art.pegasko.yeeemp.base.Queue;
+import art.pegasko.yeeemp.base.QueueOrder;
+import art.pegasko.yeeemp.base.Wrapper;
+
+/**
+ * Backup kept for database replaced by import and restored from it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BackupTest {
+    private static final String CHANGE_LOG_SEQUENCE = "select seq from sqlite_sequence where name = 'change_log'";
+
+    private Context context;
+    private File restoreFile;
+
+    @Before
+    public void setUp() {
+        this.context = RuntimeEnvironment.application;
+        this.restoreFile = new File(this.context.getFilesDir(), "restore.db");
+
+        SQLiteDatabase db = TestDatabase.openSQLite(DBWrapper.getDBPath(this.context));
+        try {
+            Queue queue = new QueueMakerImpl(db).create();
+            queue.setName("queue");
+            EventMakerImpl eventMaker = new EventMakerImpl(db);
+            for (int index = 0; index < 50; ++index) {
+                eventMaker.saveEvent(queue, null, index, null, new String[] { "tag-" + (index % 3) });
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Wrapper instance = Wrapper.instance();
+        if (instance != null) {
+            ((DBWrapper) instance).db.close();
+            Wrapper.setInstance(null);
+        }
+
+        Backup.invalidate(this.context);
+        SQLiteDatabase.deleteDatabase(DBWrapper.getDBPath(this.context));
+        SQLiteDatabase.deleteDatabase(this.restoreFile);
+    }
+
+    private static void addEvent(long timestamp) {
+        Queue queue = Wrapper.getQueueMaker().list(QueueOrder.Order.ID)[0];
+        Wrapper.getEventMaker().saveEvent(queue, null, timestamp, null, new String[] { "tag-new" });
+    }
+
+    @Test
+    public void restoredDatabaseContinuesChain() throws Exception {
+        Init.initDB(this.context);
+
+        assertTrue(Backup.run(this.context).snapshot);
+        addEvent(1000);
+        assertFalse(Backup.run(this.context).snapshot);
+
+        DataUtils.restoreBackup(this.context);
+        assertEquals(51, DatabaseUtils.longForQuery(
+            ((DBWrapper) Wrapper.instance()).db,
+            "select count(*) from event",
+            null
+        ));
+
+        addEvent(2000);
+        Backup.Report report = Backup.run(this.context);
+        assertFalse(report.snapshot);
+        assertTrue(report.records > 0);
+    }
+
+    @Test
+    public void replacedDatabaseIsRestorable() throws Exception {
+        Backup.keepReplaced(this.context);
+        assertTrue(Backup.hasBackup(this.context));
+
+        Backup.restore(this.context, this.restoreFile);
+
+        SQLiteDatabase live = SQLiteDatabase.openDatabase(
+            DBWrapper.getDBPath(this.context).getPath(),
+            null,
+            SQLiteDatabase.OPEN_READONLY
+        );
+        SQLiteDatabase restored = SQLiteDatabase.openDatabase(this.restoreFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            assertEquals(50, DatabaseUtils.longForQuery(restored, "select count(*) from event", null));
+            assertEquals(50, DatabaseUtils.longForQuery(restored, "select count(*) from event_tag", null));
+            assertEquals(0, DatabaseUtils.longForQuery(restored, "select count(*) from change_log", null));
+            TestDatabase.assertStatsConsistent(restored);
+
+            // Restored database continues chain that ends at sequence of replaced one
+            assertEquals(
+                DatabaseUtils.longForQuery(live, CHANGE_LOG_SEQUENCE, null),
+                DatabaseUtils.longForQuery(restored, CHANGE_LOG_SEQUENCE, null)
+            );
+        } finally {
+            live.close();
+            restored.close();
+        }
+    }
+}
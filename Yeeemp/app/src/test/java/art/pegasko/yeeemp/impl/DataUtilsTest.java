@@ -0,0 +1,138 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import art.pegasko.yeeemp.base.Queue;
+
+/**
+ * Snapshot of internal db taken without database monitor.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DataUtilsTest {
+    private Context context;
+    private SQLiteDatabase db;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() {
+        this.context = RuntimeEnvironment.application;
+        this.db = TestDatabase.openSQLite(DBWrapper.getDBPath(this.context));
+        this.snapshotFile = new File(this.context.getFilesDir(), "snapshot.db");
+
+        Queue queue = new QueueMakerImpl(this.db).create();
+        queue.setName("queue");
+        EventMakerImpl eventMaker = new EventMakerImpl(this.db);
+        for (int index = 0; index < 100; ++index) {
+            eventMaker.saveEvent(queue, null, index, "comment " + index, new String[] { "tag-" + (index % 7) });
+        }
+        eventMaker.delete(eventMaker.getById(100));
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+        SQLiteDatabase.deleteDatabase(DBWrapper.getDBPath(this.context));
+        SQLiteDatabase.deleteDatabase(this.snapshotFile);
+    }
+
+    private static long count(SQLiteDatabase db, String query) {
+        return DatabaseUtils.longForQuery(db, query, null);
+    }
+
+    @Test
+    public void snapshotCopiesDatabase() {
+        DataUtils.snapshotDatabase(this.context, this.snapshotFile);
+
+        SQLiteDatabase snapshot = SQLiteDatabase.openDatabase(
+            this.snapshotFile.getPath(),
+            null,
+            SQLiteDatabase.OPEN_READONLY
+        );
+        try {
+            assertEquals("ok", DatabaseUtils.stringForQuery(snapshot, "PRAGMA integrity_check", null));
+            assertEquals(this.db.getVersion(), snapshot.getVersion());
+
+            String[] queries = {
+                "PRAGMA auto_vacuum",
+                "select count(*) from sqlite_master",
+                "select count(*) from event",
+                "select count(*) from event_tag",
+                "select count(*) from change_log",
+                "select seq from sqlite_sequence where name = 'event'",
+                "select seq from sqlite_sequence where name = 'change_log'",
+                "select event_count from queue_stat",
+            };
+            for (String query : queries) {
+                assertEquals(query, count(this.db, query), count(snapshot, query));
+            }
+            TestDatabase.assertStatsConsistent(snapshot);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    @Test
+    public void snapshotDoesNotWaitForWrites() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            synchronized (this.db) {
+                Future<?> snapshot = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        DataUtils.snapshotDatabase(DataUtilsTest.this.context, DataUtilsTest.this.snapshotFile);
+                    }
+                });
+
+                // Fails with timeout if snapshot takes database monitor
+                snapshot.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(this.snapshotFile.exists());
+    }
+}
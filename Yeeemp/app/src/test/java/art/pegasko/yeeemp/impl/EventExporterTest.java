@@ -0,0 +1,144 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import art.pegasko.yeeemp.base.Event;
+import art.pegasko.yeeemp.base.Queue;
+
+/**
+ * CSV export read back by {@link EventImporter}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EventExporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDatabase db;
+    private int nullEventId;
+
+    @Before
+    public void setUp() throws Exception {
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+
+        QueueMakerImpl queueMaker = new QueueMakerImpl(this.db);
+        Queue queue = queueMaker.create();
+        queue.setName("Work");
+        queueMaker.create().setName("Empty");
+
+        EventMakerImpl eventMaker = new EventMakerImpl(this.db);
+        Event event = eventMaker.create();
+        queue.addEvent(event);
+        this.nullEventId = event.getId();
+
+        eventMaker.saveEvent(queue, null, 0, null, new String[0]);
+        eventMaker.saveEvent(queue, null, 1000, "one, two", new String[] { "a;b", "c\\d" });
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    private byte[] exportCsv() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(3, EventExporter.export(this.db, out, EventExporter.Format.CSV, null));
+        return out.toByteArray();
+    }
+
+    @Test
+    public void csvHasEmptyQueuesAndMissingTimestamps() throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(this.exportCsv()));
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            text.write(buffer, 0, read);
+        }
+        String csv = text.toString("UTF-8");
+
+        assertTrue(csv, csv.contains("\r\n,Empty,,,,,\r\n"));
+        assertTrue(csv, csv.contains("\r\n1,Work," + this.nullEventId + ",,,,\r\n"));
+        assertTrue(csv, csv.contains(",0,1970-"));
+        assertTrue(csv, csv.contains(",\"one, two\",a\\;b;c\\\\d\r\n"));
+    }
+
+    @Test
+    public void csvImportsBack() throws IOException {
+        byte[] csv = this.exportCsv();
+
+        SQLiteDatabase target = TestDatabase.openSQLite(new File(this.folder.getRoot(), "target.db"));
+        try {
+            EventImporter.Report report = EventImporterTest.importBytes(target, csv);
+            assertEquals(2, report.queues);
+            assertEquals(2, report.tags);
+            assertEquals(3, report.events);
+
+            assertEquals(1, DatabaseUtils.longForQuery(
+                target,
+                "select count(*) from queue where name = 'Empty'",
+                null
+            ));
+            assertEquals(1, DatabaseUtils.longForQuery(
+                target,
+                "select count(*) from event where timestamp is null",
+                null
+            ));
+            assertEquals(1, DatabaseUtils.longForQuery(
+                target,
+                "select count(*) from event where timestamp = 0",
+                null
+            ));
+            assertEquals("a;b|c\\d", DatabaseUtils.stringForQuery(
+                target,
+                "select group_concat(name, '|') from (select name from tag order by name)",
+                null
+            ));
+            TestDatabase.assertStatsConsistent(target);
+        } finally {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Throughput of bulk import of generated CSV, parsing included, into database with all triggers.
+ *
+ * Depends on machine speed, so it is excluded from regular test run, run with `./gradlew test -Pbenchmark`.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EventImporterBenchmarkTest {
+    private static final int EVENTS = 100000;
+    private static final int WARMUP_EVENTS = 20000;
+
+    /* Target throughput of import, events per second */
+    private static final double MIN_EVENTS_PER_SECOND = 50000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void importThroughput() throws IOException {
+        // Warm up JIT on separate queues
+        EventImporterTest.importBytes(
+            this.db,
+            EventImporterTest.generateCsv(new Random(1), "warmup", WARMUP_EVENTS).getBytes("UTF-8")
+        );
+
+        byte[] csv = EventImporterTest.generateCsv(new Random(2), "queue", EVENTS).getBytes("UTF-8");
+        long started = System.nanoTime();
+        EventImporterTest.importBytes(this.db, csv);
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        double rate = EVENTS / seconds;
+        assertTrue(
+            String.format("Imported %d events in %.3f s, rate %.0f events/s is below %.0f", EVENTS, seconds, rate, MIN_EVENTS_PER_SECOND),
+            rate >= MIN_EVENTS_PER_SECOND
+        );
+
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+}
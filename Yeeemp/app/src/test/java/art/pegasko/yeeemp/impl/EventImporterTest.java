@@ -0,0 +1,294 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import art.pegasko.yeeemp.base.Queue;
+import art.pegasko.yeeemp.base.QueueOrder;
+
+/**
+ * Parsing of import files and stats of queues after bulk import.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EventImporterTest {
+    static final int QUEUES = 4;
+    static final int TAGS_PER_QUEUE = 32;
+    static final int MAX_TAGS_PER_EVENT = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    /**
+     * Generate CSV of `count` random events in QUEUES queues named with `prefix`
+     */
+    static String generateCsv(Random random, String prefix, int count) {
+        StringBuilder sb = new StringBuilder("queue_name,timestamp,comment,tags\n");
+        for (int index = 0; index < count; ++index) {
+            sb.append(prefix).append('-').append(random.nextInt(QUEUES)).append(',');
+            sb.append(1700000000000L + random.nextInt(1000000000)).append(',');
+            if (random.nextInt(4) == 0)
+                sb.append("comment ").append(index);
+            sb.append(',');
+
+            HashSet<String> tags = new HashSet<String>();
+            int tagCount = random.nextInt(MAX_TAGS_PER_EVENT + 1);
+            for (int tag = 0; tag < tagCount; ++tag) {
+                tags.add("tag-" + random.nextInt(TAGS_PER_QUEUE));
+            }
+            boolean first = true;
+            for (String tag : tags) {
+                sb.append(first ? "" : ";").append(tag);
+                first = false;
+            }
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    static EventImporter.Report importBytes(SQLiteDatabase db, byte[] data) throws IOException {
+        return EventImporter.run(db, new ByteArrayInputStream(data));
+    }
+
+    private EventImporter.Report importText(String text) throws IOException {
+        return importBytes(this.db, text.getBytes("UTF-8"));
+    }
+
+    /**
+     * @return sorted tag names of event with given timestamp joined with `|`
+     */
+    private String tagsOf(long timestamp) {
+        return DatabaseUtils.stringForQuery(
+            this.db,
+            "select ifnull(group_concat(name, '|'), '') from (" +
+            "    select tag.name as name from event" +
+            "    inner join event_tag on event_tag.event_id = event.id" +
+            "    inner join tag on tag.id = event_tag.tag_id" +
+            "    where event.timestamp = ?" +
+            "    order by tag.name" +
+            ")",
+            new String[] { Long.toString(timestamp) }
+        );
+    }
+
+    private String commentOf(long timestamp) {
+        return DatabaseUtils.stringForQuery(
+            this.db,
+            "select comment from event where timestamp = ?",
+            new String[] { Long.toString(timestamp) }
+        );
+    }
+
+    private long count(String query) {
+        return DatabaseUtils.longForQuery(this.db, query, null);
+    }
+
+    @Test
+    public void csv() throws IOException {
+        EventImporter.Report report = this.importText(
+            "id,queue_name,timestamp,comment,tags\r\n" +
+            "1,Work,1000,\"Line one, with comma\nand \"\"quotes\"\"\",Alpha;  BETA ;alpha\r\n" +
+            "2,Work,2000,,a\\;b;c\\\\d;;\n" +
+            "\n" +
+            "3,\"Home\",3000,plain,\n"
+        );
+
+        assertEquals(2, report.queues);
+        assertEquals(4, report.tags);
+        assertEquals(3, report.events);
+
+        assertEquals("Line one, with comma\nand \"quotes\"", this.commentOf(1000));
+        assertEquals("alpha|beta", this.tagsOf(1000));
+        assertNull(this.commentOf(2000));
+        assertEquals("a;b|c\\d", this.tagsOf(2000));
+        assertEquals("plain", this.commentOf(3000));
+        assertEquals("", this.tagsOf(3000));
+
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void json() throws IOException {
+        EventImporter.Report report = this.importText(
+            "\uFEFF \n[" +
+            "{\"queue_name\": \"Work\", \"timestamp\": 1000, \"comment\": \"first\", " +
+            "\"tags\": [\" Alpha\", \"ALPHA\", \"x;y\", \"\"], \"extra\": {\"a\": [1]}}," +
+            "{\"tags\": [], \"comment\": null, \"timestamp\": 2000, \"queue_name\": \"Work\"}" +
+            "]"
+        );
+
+        assertEquals(1, report.queues);
+        assertEquals(2, report.tags);
+        assertEquals(2, report.events);
+
+        assertEquals("first", this.commentOf(1000));
+        assertEquals("alpha|x;y", this.tagsOf(1000));
+        assertNull(this.commentOf(2000));
+        assertEquals("", this.tagsOf(2000));
+
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void jsonQueueAndMissingTimestamp() throws IOException {
+        EventImporter.Report report = this.importText(
+            "[" +
+            "{\"queue_name\": \"Empty\"}," +
+            "{\"queue_name\": \"Work\", \"timestamp\": null, \"tags\": [\"a\"]}" +
+            "]"
+        );
+
+        assertEquals(2, report.queues);
+        assertEquals(1, report.events);
+        assertEquals(0, this.count("select count(*) from queue_event where queue_id = (select id from queue where name = 'Empty')"));
+        assertEquals(1, this.count("select count(*) from event where timestamp is null"));
+        assertEquals(0, this.count("select timestamp from queue_event"));
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void gzip() throws IOException {
+        // Several batches, last one partial
+        int events = 2 * EventImporter.BATCH_SIZE + 5;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(generateCsv(new Random(1), "queue", events).getBytes("UTF-8"));
+        gzip.close();
+
+        EventImporter.Report report = importBytes(this.db, bytes.toByteArray());
+        assertEquals(events, report.events);
+        assertEquals(events, this.count("select sum(event_count) from queue_stat"));
+        assertEquals(0, this.count("select count(*) from stale_queue"));
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void matchesExistingQueueAndTags() throws IOException {
+        Queue queue = new QueueMakerImpl(this.db).create();
+        queue.setName("Work");
+        EventMakerImpl eventMaker = new EventMakerImpl(this.db);
+        for (int index = 0; index < 10; ++index) {
+            eventMaker.saveEvent(queue, null, index, null, new String[] { "alpha" });
+        }
+
+        EventImporter.Report report = this.importText(
+            "queue_name,timestamp,tags\n" +
+            " Work ,1000,ALPHA\n" +
+            "Work,2000, alpha \n"
+        );
+
+        assertEquals(0, report.queues);
+        assertEquals(0, report.tags);
+        assertEquals(12, this.count("select event_count from queue_stat"));
+        assertEquals(12, this.count("select event_count from queue_tag"));
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void continuesEventIds() throws IOException {
+        this.importText(generateCsv(new Random(3), "queue", 1500));
+
+        // Deleted ids are not reused, same as AUTOINCREMENT does for regular inserts
+        this.db.execSQL("delete from event where id > 1000");
+
+        this.importText(generateCsv(new Random(4), "queue", 10));
+        assertEquals(1501, this.count("select min(id) from event where id > 1000"));
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void triggersCountEventsAfterImport() throws IOException {
+        this.importText(generateCsv(new Random(5), "queue", 2000));
+
+        // Regular insert goes through triggers again
+        Queue queue = new QueueMakerImpl(this.db).list(QueueOrder.Order.ID)[0];
+        String[] args = new String[] { Integer.toString(queue.getId()) };
+        long before = DatabaseUtils.longForQuery(this.db, "select event_count from queue_stat where queue_id = ?", args);
+        new EventMakerImpl(this.db).saveEvent(queue, null, 1234L, null, new String[] { "tag-0" });
+
+        assertEquals(before + 1, DatabaseUtils.longForQuery(
+            this.db,
+            "select event_count from queue_stat where queue_id = ?",
+            args
+        ));
+        assertEquals(1234L, DatabaseUtils.longForQuery(
+            this.db,
+            "select timestamp from queue_event where event_id = (select max(id) from event)",
+            null
+        ));
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+
+    @Test
+    public void failureKeepsImportedBatches() throws IOException {
+        String csv = generateCsv(new Random(6), "queue", EventImporter.BATCH_SIZE + 10) + "queue-0,invalid,,\n";
+        try {
+            this.importText(csv);
+            fail("Invalid timestamp was imported");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertEquals(EventImporter.BATCH_SIZE, this.count("select count(*) from event"));
+        assertEquals(0, this.count("select count(*) from stale_queue"));
+        TestDatabase.assertStatsConsistent(this.db);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import art.pegasko.yeeemp.base.Event;
+import art.pegasko.yeeemp.base.Queue;
+
+/**
+ * Merge of database file into current database.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MergeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sourcePath;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        this.sourcePath = new File(this.folder.getRoot(), "source.db");
+        SQLiteDatabase source = TestDatabase.openSQLite(this.sourcePath);
+        try {
+            Queue queue = new QueueMakerImpl(source).create();
+            queue.setName("queue");
+
+            EventMakerImpl eventMaker = new EventMakerImpl(source);
+            for (int index = 0; index < 3; ++index) {
+                // Events without timestamp
+                Event event = eventMaker.create();
+                queue.addEvent(event);
+            }
+            eventMaker.saveEvent(queue, null, 0, "zero", new String[] { "a" });
+            eventMaker.saveEvent(queue, null, 1700000000000L, null, new String[] { "a", "b" });
+            eventMaker.saveEvent(queue, null, 1700000000000L, "comment", new String[0]);
+        } finally {
+            source.close();
+        }
+
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void mergeSameFileTwice() {
+        Merge.Report first = Merge.run(this.db, this.sourcePath);
+        assertEquals(1, first.queues);
+        assertEquals(6, first.events);
+        assertEquals(0, first.duplicateEvents);
+
+        Merge.Report second = Merge.run(this.db, this.sourcePath);
+        assertEquals(0, second.queues);
+        assertEquals(0, second.tags);
+        assertEquals(0, second.events);
+        assertEquals(6, second.duplicateEvents);
+
+        assertEquals(6, DatabaseUtils.longForQuery(this.db, "select count(*) from event", null));
+        assertEquals(6, DatabaseUtils.longForQuery(this.db, "select event_count from queue_stat", null));
+    }
+}
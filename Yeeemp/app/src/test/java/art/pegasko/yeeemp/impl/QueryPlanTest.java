@@ -0,0 +1,165 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+import art.pegasko.yeeemp.base.QueueOrder;
+
+/**
+ * Query plans of lookups of queues, tags and merge candidates on current schema.
+ *
+ * Lookups by key must seek index of that key. Only results of one lookup may be sorted with temp B-tree, never
+ * whole table.
+ */
+public class QueryPlanTest {
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = TestDatabase.open();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.connection.close();
+    }
+
+    @Test
+    public void queueListSeeksStats() throws SQLException {
+        for (QueueOrder.Order order : QueueOrder.Order.values()) {
+            ArrayList<String> plan = this.explain(QueueMakerImpl.listQuery(order));
+            assertTrue(plan.toString(), plan.contains("SEARCH queue_stat USING INTEGER PRIMARY KEY (rowid=?) LEFT-JOIN"));
+
+            // Queues are few, only sorting by name needs temp B-tree
+            if (order != QueueOrder.Order.NAME)
+                assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+        }
+    }
+
+    @Test
+    public void eventTagsSeekIndex() throws SQLException {
+        ArrayList<String> plan = this.explain(EventImpl.TAGS_QUERY, "1");
+        assertTrue(
+            plan.toString(),
+            plan.contains("SEARCH event_tag USING COVERING INDEX event_tag__event_id_tag_id (event_id=?)")
+        );
+        assertTrue(plan.toString(), plan.contains("SEARCH tag USING INTEGER PRIMARY KEY (rowid=?) LEFT-JOIN"));
+        assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void hasTagSeeksIndex() throws SQLException {
+        ArrayList<String> plan = this.explain(EventImpl.HAS_TAG_QUERY, "1", "2");
+        assertTrue(
+            plan.toString(),
+            plan.contains("SEARCH event_tag USING COVERING INDEX event_tag__event_id_tag_id (event_id=? AND tag_id=?)")
+        );
+    }
+
+    @Test
+    public void existingTagSeeksIndex() throws SQLException {
+        ArrayList<String> plan = this.explain(TagMakerImpl.EXISTING_TAG_QUERY, "1", "name");
+        assertTrue(
+            plan.toString(),
+            plan.contains("SEARCH tag USING COVERING INDEX tag__queue_id_name (queue_id=? AND name=?)")
+        );
+    }
+
+    @Test
+    public void resolveInQueueSeeksIndex() throws SQLException {
+        ArrayList<String> plan = this.explain(TagMakerImpl.resolveQuery(3), "1", "a", "b", "c");
+        assertTrue(
+            plan.toString(),
+            plan.contains("SEARCH tag USING COVERING INDEX tag__queue_id_name (queue_id=? AND name=?)")
+        );
+    }
+
+    @Test
+    public void mergeCandidatesSeekIndex() throws SQLException {
+        Statement statement = this.connection.createStatement();
+        try {
+            statement.execute(Merge.CREATE_MERGE_EVENT);
+            statement.execute(Merge.CREATE_MERGE_EXISTING);
+        } finally {
+            statement.close();
+        }
+
+        ArrayList<String> plan = this.explain(Merge.INSERT_EXISTING);
+        assertTrue(
+            plan.toString(),
+            plan.contains(
+                "SEARCH queue_event USING COVERING INDEX queue_event__queue_id_timestamp_event_id" +
+                " (queue_id=? AND timestamp=?)"
+            )
+        );
+        assertTrue(plan.toString(), plan.contains("SEARCH event USING INTEGER PRIMARY KEY (rowid=?)"));
+        assertTrue(
+            plan.toString(),
+            plan.contains("SEARCH event_tag USING COVERING INDEX event_tag__event_id_tag_id (event_id=?)")
+        );
+        assertFalse(plan.toString(), plan.contains("SCAN queue_event"));
+    }
+
+    /**
+     * @return details of EXPLAIN QUERY PLAN rows, schema prefix `main.` removed
+     */
+    private ArrayList<String> explain(String query, String... args) throws SQLException {
+        PreparedStatement statement = this.connection.prepareStatement("EXPLAIN QUERY PLAN " + query);
+        try {
+            // Bound as strings, same as rawQuery does
+            for (int index = 0; index < args.length; ++index) {
+                statement.setString(index + 1, args[index]);
+            }
+
+            ArrayList<String> plan = new ArrayList<String>();
+            ResultSet result = statement.executeQuery();
+            try {
+                while (result.next()) {
+                    plan.add(result.getString("detail").replace("main.", ""));
+                }
+            } finally {
+                result.close();
+            }
+
+            return plan;
+        } finally {
+            statement.close();
+        }
+    }
+}
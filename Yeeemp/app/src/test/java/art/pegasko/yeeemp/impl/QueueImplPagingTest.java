@@ -0,0 +1,158 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import art.pegasko.yeeemp.base.Event;
+import art.pegasko.yeeemp.base.EventOrder;
+import art.pegasko.yeeemp.base.Queue;
+
+/**
+ * Keyset paging of queue events.
+ *
+ * Events without timestamp and events with equal timestamps must be returned exactly once, in same order as full
+ * list, whatever page boundary falls on them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueueImplPagingTest {
+    private static final int PAGE_SIZE = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDatabase db;
+    private Queue queue;
+
+    /* Expected (timestamp, id) of all events in queue, missing timestamp as 0 */
+    private ArrayList<long[]> events = new ArrayList<long[]>();
+
+    @Before
+    public void setUp() throws Exception {
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+        this.queue = new QueueMakerImpl(this.db).create();
+
+        EventMakerImpl eventMaker = new EventMakerImpl(this.db);
+        Random random = new Random(1);
+        for (int index = 0; index < 62; ++index) {
+            Event event;
+            long timestamp;
+            if (index % 5 == 0) {
+                // Created without timestamp and linked later, like events of old databases
+                event = eventMaker.create();
+                this.queue.addEvent(event);
+                timestamp = 0;
+            } else if (index % 11 == 0) {
+                event = eventMaker.saveEvent(this.queue, null, 0, null, new String[0]);
+                timestamp = 0;
+            } else {
+                // Few distinct values, most of timestamps are duplicated
+                timestamp = 1700000000000L + random.nextInt(6) * 1000L;
+                event = eventMaker.saveEvent(this.queue, null, timestamp, null, new String[] { "tag" });
+            }
+
+            this.events.add(new long[] { timestamp, event.getId() });
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Test
+    public void timestampDesc() {
+        this.assertPaging(EventOrder.Order.TIMESTAMP_DESC, 0, true);
+    }
+
+    @Test
+    public void timestampAsc() {
+        this.assertPaging(EventOrder.Order.TIMESTAMP_ASC, 0, false);
+    }
+
+    @Test
+    public void idDesc() {
+        this.assertPaging(EventOrder.Order.ID_DESC, 1, true);
+    }
+
+    @Test
+    public void idAsc() {
+        this.assertPaging(EventOrder.Order.ID_ASC, 1, false);
+    }
+
+    /**
+     * Page through all events using last event of page as keyset and compare with expected order
+     *
+     * @param key 0 to order by (timestamp, id), 1 to order by id
+     */
+    private void assertPaging(EventOrder.Order order, final int key, final boolean descending) {
+        ArrayList<long[]> sorted = new ArrayList<long[]>(this.events);
+        Collections.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] left, long[] right) {
+                int result = key == 0 ? Long.compare(left[0], right[0]) : 0;
+                if (result == 0) {
+                    result = Long.compare(left[1], right[1]);
+                }
+                return descending ? -result : result;
+            }
+        });
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (long[] event : sorted) {
+            expected.add((int) event[1]);
+        }
+
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        Event[] page = this.queue.getEvents(order, null, PAGE_SIZE);
+        while (page.length > 0) {
+            for (Event event : page) {
+                actual.add(event.getId());
+            }
+
+            Event last = page[page.length - 1];
+            page = this.queue.getEvents(order, last.getTimestamp(), last.getId(), PAGE_SIZE);
+        }
+
+        assertEquals(expected, actual);
+    }
+}
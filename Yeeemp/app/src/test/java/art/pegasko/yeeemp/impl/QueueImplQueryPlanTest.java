@@ -0,0 +1,203 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import art.pegasko.yeeemp.base.EventOrder;
+
+/**
+ * Query plans of QueueImpl queries on current schema.
+ *
+ * Page of events must be selected by seeking queue_event__queue_id_timestamp_event_id or
+ * queue_event__queue_id_event_id depending on order, without sorting all events of queue. Outer query still sorts
+ * joined (event, tag) rows with temp B-tree, that is expected, it sorts only rows of one page.
+ */
+public class QueueImplQueryPlanTest {
+    private static final String TIMESTAMP_INDEX = "queue_event__queue_id_timestamp_event_id";
+    private static final String ID_INDEX = "queue_event__queue_id_event_id";
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        this.connection = TestDatabase.open();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        this.connection.close();
+    }
+
+    @Test
+    public void timestampDescKeysetSeeksIndex() throws SQLException {
+        this.assertPageSeeksIndex(EventOrder.Order.TIMESTAMP_DESC, true, TIMESTAMP_INDEX, "timestamp");
+    }
+
+    @Test
+    public void timestampAscKeysetSeeksIndex() throws SQLException {
+        this.assertPageSeeksIndex(EventOrder.Order.TIMESTAMP_ASC, true, TIMESTAMP_INDEX, "timestamp");
+    }
+
+    @Test
+    public void timestampFirstPageSeeksIndex() throws SQLException {
+        this.assertPageSeeksIndex(EventOrder.Order.TIMESTAMP_DESC, false, TIMESTAMP_INDEX, "timestamp");
+        this.assertPageSeeksIndex(EventOrder.Order.TIMESTAMP_ASC, false, TIMESTAMP_INDEX, "timestamp");
+    }
+
+    @Test
+    public void idDescKeysetSeeksIndex() throws SQLException {
+        this.assertPageSeeksIndex(EventOrder.Order.ID_DESC, true, ID_INDEX, "event_id");
+    }
+
+    @Test
+    public void idAscKeysetSeeksIndex() throws SQLException {
+        this.assertPageSeeksIndex(EventOrder.Order.ID_ASC, true, ID_INDEX, "event_id");
+    }
+
+    @Test
+    public void idFirstPageSeeksIndex() throws SQLException {
+        this.assertPageSeeksIndex(EventOrder.Order.ID_DESC, false, ID_INDEX, "event_id");
+        this.assertPageSeeksIndex(EventOrder.Order.ID_ASC, false, ID_INDEX, "event_id");
+    }
+
+    @Test
+    public void globalTagsSeekIndex() throws SQLException {
+        ArrayList<String> args = new ArrayList<String>();
+        args.add("1");
+
+        ArrayList<String> plan = new ArrayList<String>();
+        this.explain(QueueImpl.GLOBAL_TAGS_QUERY, args, plan, null);
+
+        assertTrue(
+            plan.toString(),
+            plan.contains("SEARCH queue_tag USING INDEX queue_tag__queue_id_event_count (queue_id=?)")
+        );
+        assertTrue(plan.toString(), plan.contains("SEARCH tag USING INTEGER PRIMARY KEY (rowid=?) LEFT-JOIN"));
+        assertFalse("Tags are sorted instead of read in index order, " + plan, plan.toString().contains("TEMP B-TREE"));
+    }
+
+    /**
+     * @param column first index column after queue_id, keyset must be range on it
+     */
+    private void assertPageSeeksIndex(
+        EventOrder.Order order,
+        boolean hasAfter,
+        String index,
+        String column
+    ) throws SQLException {
+        ArrayList<String> args = new ArrayList<String>();
+        String query = QueueImpl.eventsQuery(1, order, hasAfter, 1700000000000L, 42, 50, args);
+
+        ArrayList<String> page = new ArrayList<String>();
+        ArrayList<String> outer = new ArrayList<String>();
+        this.explain(query, args, page, outer);
+
+        String plan = "page: " + page + ", outer: " + outer;
+
+        boolean seeks = false;
+        for (String detail : page) {
+            // ID orders also read timestamp from table row, once per row of page
+            seeks |= (
+                detail.startsWith("SEARCH queue_event USING COVERING INDEX " + index + " ")
+                || detail.startsWith("SEARCH queue_event USING INDEX " + index + " ")
+            );
+            assertFalse("Page is sorted instead of read in index order, " + plan, detail.contains("TEMP B-TREE"));
+        }
+        assertTrue("Page does not seek " + index + ", " + plan, seeks);
+
+        if (hasAfter) {
+            boolean range = false;
+            for (String detail : page) {
+                range |= detail.contains("(queue_id=? AND " + column);
+            }
+            assertTrue("Keyset is not used as range on index, " + plan, range);
+        }
+    }
+
+    /**
+     * Split EXPLAIN QUERY PLAN rows into rows of page subquery and rows of outer query, or collect all rows into
+     * `page` when `outer` is null
+     */
+    private void explain(
+        String query,
+        ArrayList<String> args,
+        ArrayList<String> page,
+        ArrayList<String> outer
+    ) throws SQLException {
+        PreparedStatement statement = this.connection.prepareStatement("EXPLAIN QUERY PLAN " + query);
+        try {
+            // Bound as strings, same as rawQuery does
+            for (int index = 0; index < args.size(); ++index) {
+                statement.setString(index + 1, args.get(index));
+            }
+
+            HashMap<Integer, Integer> parents = new HashMap<Integer, Integer>();
+            HashSet<Integer> pageRoots = new HashSet<Integer>();
+            ResultSet result = statement.executeQuery();
+            try {
+                while (result.next()) {
+                    int id = result.getInt("id");
+                    int parent = result.getInt("parent");
+                    String detail = result.getString("detail");
+                    parents.put(id, parent);
+
+                    if (detail.equals("CO-ROUTINE page") || detail.equals("MATERIALIZE page")) {
+                        pageRoots.add(id);
+                        continue;
+                    }
+
+                    boolean inPage = false;
+                    for (Integer node = parent; node != null && node != 0 && !inPage; node = parents.get(node)) {
+                        inPage = pageRoots.contains(node);
+                    }
+
+                    (inPage || outer == null ? page : outer).add(detail);
+                }
+            } finally {
+                result.close();
+            }
+
+            if (outer != null)
+                assertFalse("Page subquery was flattened", pageRoots.isEmpty());
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import art.pegasko.yeeemp.base.Queue;
+
+/**
+ * Queue delete with counters of its events skipped by stale mark.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueueMakerImplTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDatabase db;
+    private QueueMakerImpl queueMaker;
+
+    @Before
+    public void setUp() throws Exception {
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+        this.queueMaker = new QueueMakerImpl(this.db);
+    }
+
+    @After
+    public void tearDown() {
+        this.db.close();
+    }
+
+    private static long count(SQLiteDatabase db, String query) {
+        return DatabaseUtils.longForQuery(db, query, null);
+    }
+
+    private Queue fill(String name, int events) {
+        Queue queue = this.queueMaker.create();
+        queue.setName(name);
+
+        EventMakerImpl eventMaker = new EventMakerImpl(this.db);
+        for (int index = 0; index < events; ++index) {
+            eventMaker.saveEvent(queue, null, index, null, new String[] { "tag-" + (index % 3), "tag-" + (index % 5) });
+        }
+
+        return queue;
+    }
+
+    @Test
+    public void deleteKeepsOtherQueues() {
+        Queue deleted = this.fill("deleted", 40);
+        Queue kept = this.fill("kept", 25);
+        long changes = count(this.db, "select count(*) from change_log");
+        long eventTags = count(
+            this.db,
+            "select count(*) from event_tag where event_id in (select event_id from queue_event where queue_id = "
+                + deleted.getId() + ")"
+        );
+
+        this.queueMaker.delete(deleted);
+
+        assertNull(this.queueMaker.getById(deleted.getId()));
+        assertEquals(25, kept.getEventCount());
+        assertEquals(0, count(this.db, "select count(*) from stale_queue"));
+        assertEquals(0, count(this.db, "select count(*) from queue_stat where queue_id = " + deleted.getId()));
+        assertEquals(0, count(this.db, "select count(*) from queue_tag where queue_id = " + deleted.getId()));
+        assertEquals(25, count(this.db, "select count(*) from event"));
+        TestDatabase.assertStatsConsistent(this.db);
+
+        // Each deleted row is still logged for backup deltas: queue, its 5 tags, events, links and event tags
+        assertEquals(changes + 1 + 5 + 40 + 40 + eventTags, count(this.db, "select count(*) from change_log"));
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and writes of {@link Statements} on database with single connection, as with rollback journal.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StatementsTest {
+    private static final String LOOKUP = "select count(*) from event where id <= ?";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDatabase db;
+    private Statements statements;
+
+    @Before
+    public void setUp() throws Exception {
+        this.db = TestDatabase.openSQLite(new File(this.folder.getRoot(), "database.db"));
+        this.statements = Statements.of(this.db);
+    }
+
+    /* Threads left in deadlock must not keep test run alive */
+    private static ExecutorService daemonExecutor() {
+        return Executors.newSingleThreadExecutor((Runnable runnable) -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Test
+    public void lookupWaitingForConnectionDoesNotBlockWriter() throws Exception {
+        ExecutorService writer = daemonExecutor();
+        ExecutorService reader = daemonExecutor();
+        try {
+            Future<Future<Long>> written = writer.submit(() -> {
+                synchronized (this.db) {
+                    this.db.beginTransaction();
+                    try {
+                        this.statements.insert("insert into event (timestamp) values (?)", 1L);
+
+                        // Reader waits for connection held by this transaction
+                        Future<Long> read = reader.submit(() -> this.statements.queryLong(LOOKUP, -1, 10));
+                        Thread.sleep(500);
+                        assertFalse(read.isDone());
+
+                        // Same lookup inside transaction must not wait for reader
+                        assertEquals(1, this.statements.queryLong(LOOKUP, -1, 10));
+
+                        this.db.setTransactionSuccessful();
+                        return read;
+                    } finally {
+                        this.db.endTransaction();
+                    }
+                }
+            });
+
+            // Fails with timeout if writer and reader deadlock
+            Future<Long> read = written.get(30, TimeUnit.SECONDS);
+            assertEquals(Long.valueOf(1), read.get(30, TimeUnit.SECONDS));
+
+            // Not closed on failure, closing waits for deadlocked threads
+            Statements.release(this.db);
+            this.db.close();
+        } finally {
+            writer.shutdownNow();
+            reader.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Yeeemp - tag based event counter
+ * Copyright (C) 2024-2025  pegasko
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Notwithstanding the freedoms granted by the AGPL 3.0 license, the following restrictions apply:
+ *
+ * Commercial usage of any kind of the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) is strictly prohibited.
+ *
+ * Using the project source code and/or project build artifacts (binaries, executables, packages, archives, libraries and/or any other artifacts) for AI (Artificial Intelligence)/ML (Machine Learning)/NN (Neural Network) and/or any other kind of machine learning algorhitms and systems training is strictly prohibited.
+ */
+
+package art.pegasko.yeeemp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * SQLite database with current schema for JVM tests.
+ *
+ * {@link #open()} applies Migrations steps through JDBC to in-memory database, {@link #openSQLite(File)} opens
+ * framework database under Robolectric for tests of impl classes. Both enable foreign keys after migrations like
+ * DBWrapper does.
+ */
+class TestDatabase {
+    static Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+
+        Statement statement = connection.createStatement();
+        try {
+            connection.setAutoCommit(false);
+            for (int version = 1; version <= Migrations.VERSION; ++version) {
+                for (String query : Migrations.getStep(version)) {
+                    statement.execute(query);
+                }
+
+                statement.execute("PRAGMA user_version = " + version);
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            statement.execute("PRAGMA foreign_keys = ON");
+        } finally {
+            statement.close();
+        }
+
+        return connection;
+    }
+
+    /**
+     * Open framework database at given path with current schema
+     */
+    static SQLiteDatabase openSQLite(File path) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        Migrations.migrate(db);
+        db.setForeignKeyConstraintsEnabled(true);
+        return db;
+    }
+
+    /**
+     * Compare queue_stat and queue_tag against counts recomputed from queue_event and event_tag
+     */
+    static void assertStatsConsistent(SQLiteDatabase db) {
+        assertEquals("queue_stat differs from recomputed counts", 0, DatabaseUtils.longForQuery(
+            db,
+            "select count(*) from queue_stat" +
+            "    where event_count != (select count(*) from queue_event where queue_event.queue_id = queue_stat.queue_id)",
+            null
+        ));
+
+        String recomputed = (
+            "select queue_event.queue_id, event_tag.tag_id, count(*)" +
+            "    from queue_event" +
+            "    inner join event_tag on queue_event.event_id = event_tag.event_id" +
+            "    group by queue_event.queue_id, event_tag.tag_id"
+        );
+        String stored = "select queue_id, tag_id, event_count from queue_tag where event_count > 0";
+
+        assertEquals("queue_tag misses recomputed counts", 0, DatabaseUtils.longForQuery(
+            db,
+            "select count(*) from (" + recomputed + " except " + stored + ")",
+            null
+        ));
+        assertEquals("queue_tag has counts not recomputed", 0, DatabaseUtils.longForQuery(
+            db,
+            "select count(*) from (" + stored + " except " + recomputed + ")",
+            null
+        ));
+    }
+
+    /**
+     * Execute insert statement with given args and return rowid of inserted row
+     */
+    static long insert(PreparedStatement statement, Object... args) throws SQLException {
+        for (int index = 0; index < args.length; ++index) {
+            statement.setObject(index + 1, args[index]);
+        }
+        statement.executeUpdate();
+
+        ResultSet keys = statement.getGeneratedKeys();
+        try {
+            keys.next();
+            return keys.getLong(1);
+        } finally {
+            keys.close();
+        }
+    }
+
+    /**
+     * Select single long value
+     */
+    static long queryLong(Connection connection, String query, Object... args) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query);
+        try {
+            for (int index = 0; index < args.length; ++index) {
+                statement.setObject(index + 1, args[index]);
+            }
+
+            ResultSet result = statement.executeQuery();
+            try {
+                result.next();
+                return result.getLong(1);
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+}